@@ -0,0 +1,93 @@
+package org.src.bench;
+
+import augmentedTree.IntervalTree;
+import org.src.Gene;
+import org.src.Genome;
+import org.src.IntervalIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+public class IntervalIndexBenchmark {
+    // compares IntervalIndex with the augmentedTree.IntervalTree it replaced on the gene lookups of ReadPair
+    // usage: IntervalIndexBenchmark [<path-to-gtf>] (synthetic genes without gtf)
+    private static final int QUERIES = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        List<Gene> genes = args.length > 0 ? genesOf(args[0]) : syntheticGenes(60_000, 250_000_000);
+        int maxStop = 0;
+        for (Gene gene : genes) {
+            maxStop = Math.max(maxStop, gene.getStop());
+        }
+        System.out.println(genes.size() + " genes");
+
+        long t0 = System.nanoTime();
+        IntervalTree<Gene> tree = new IntervalTree<>(genes);
+        long t1 = System.nanoTime();
+        IntervalIndex<Gene> index = new IntervalIndex<>(genes);
+        long t2 = System.nanoTime();
+        System.out.printf("build: tree %.1f ms, index %.1f ms%n", (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+
+        // read pair sized queries
+        Random random = new Random(42);
+        int[] starts = new int[QUERIES];
+        int[] stops = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            starts[i] = random.nextInt(maxStop);
+            stops[i] = starts[i] + 100 + random.nextInt(400);
+        }
+
+        ArrayList<Gene> result = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            long treeHits = 0;
+            long indexHits = 0;
+            long a = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                result.clear();
+                treeHits += tree.getIntervalsSpanning(starts[i], stops[i], result).size();
+                result.clear();
+                treeHits += tree.getIntervalsSpannedBy(starts[i], stops[i], result).size();
+            }
+            long b = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                result.clear();
+                indexHits += index.getIntervalsSpanning(starts[i], stops[i], result).size();
+                result.clear();
+                indexHits += index.getIntervalsSpannedBy(starts[i], stops[i], result).size();
+            }
+            long c = System.nanoTime();
+            if (treeHits != indexHits) {
+                throw new IllegalStateException("Results differ: tree " + treeHits + ", index " + indexHits);
+            }
+            System.out.printf("round %d: tree %.1f ns/query, index %.1f ns/query (%d hits)%n",
+                    round, (b - a) / (2.0 * QUERIES), (c - b) / (2.0 * QUERIES), indexHits);
+        }
+    }
+
+    private static List<Gene> genesOf(String gtf) throws IOException {
+        Genome genome = new Genome();
+        genome.readGTF(gtf);
+        // largest chromosome / strand, that is what a single lookup runs on
+        HashMap<String, ArrayList<Gene>> grouped = new HashMap<>();
+        for (Gene gene : genome.getGenes()) {
+            grouped.computeIfAbsent(gene.getChr() + gene.getStrand(), key -> new ArrayList<>()).add(gene);
+        }
+        return grouped.values().stream().max((x, y) -> Integer.compare(x.size(), y.size())).orElseThrow();
+    }
+
+    private static List<Gene> syntheticGenes(int count, int chrLength) {
+        Random random = new Random(7);
+        ArrayList<Gene> genes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = 1 + random.nextInt(chrLength);
+            // mostly short genes, a few very long ones
+            int length = random.nextInt(10) == 0 ? random.nextInt(1_000_000) : 1_000 + random.nextInt(60_000);
+            genes.add(new Gene("G" + i, start, start + length, "G" + i, "1", '+', "protein_coding"));
+        }
+        return genes;
+    }
+}
@@ -0,0 +1,206 @@
+package org.src;
+
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMRecord;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class AlignedRead {
+    // the few fields of a SAMRecord that mate pairing and ReadPair need,
+    // a waiting mate no longer keeps sequence, qualities and tags alive
+    private static final int FIRST_OF_PAIR = 0x40;
+    private static final int MATE_NEGATIVE_STRAND = 0x20;
+
+    // read name as raw bytes plus a 64 bit hash of them → mates are matched without a String per record
+    private byte[] name = new byte[32];
+    private int nameLength;
+    private long nameHash;
+    private String referenceName;
+    private int flags;
+    private int alignmentStart;
+    private int alignmentEnd;
+    private int mateAlignmentStart;
+    // reference start and (inclusive) stop of the alignment blocks, grown on demand → reusable from a pool
+    private int[] blockStarts = new int[4];
+    private int[] blockStops = new int[4];
+    private int blockCount;
+
+    public AlignedRead set(SAMRecord record) {
+        // fills this read in place, alignment blocks are only resolved once per record
+        byte[] readName = record.getReadName().getBytes(StandardCharsets.US_ASCII);
+        setName(readName, 0, readName.length);
+        this.referenceName = record.getReferenceName();
+        this.flags = record.getFlags();
+        this.alignmentStart = record.getAlignmentStart();
+        this.alignmentEnd = record.getAlignmentEnd();
+        this.mateAlignmentStart = record.getMateAlignmentStart();
+        List<AlignmentBlock> blocks = record.getAlignmentBlocks();
+        ensureBlocks(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            AlignmentBlock block = blocks.get(i);
+            blockStarts[i] = block.getReferenceStart();
+            blockStops[i] = block.getReferenceStart() + block.getLength() - 1;
+        }
+        this.blockCount = blocks.size();
+        return this;
+    }
+
+    public AlignedRead set(AlignedRead other) {
+        setName(other.name, 0, other.nameLength);
+        this.referenceName = other.referenceName;
+        this.flags = other.flags;
+        this.alignmentStart = other.alignmentStart;
+        this.alignmentEnd = other.alignmentEnd;
+        this.mateAlignmentStart = other.mateAlignmentStart;
+        ensureBlocks(other.blockCount);
+        System.arraycopy(other.blockStarts, 0, blockStarts, 0, other.blockCount);
+        System.arraycopy(other.blockStops, 0, blockStops, 0, other.blockCount);
+        this.blockCount = other.blockCount;
+        return this;
+    }
+
+    public AlignedRead set(byte[] readName, int nameOffset, int nameLength, String referenceName, int flags,
+                           int alignmentStart, int alignmentEnd, int mateAlignmentStart, int blockCount) {
+        // fields decoded straight from the bam layout (see BamRecordReader), blocks follow via setBlock
+        setName(readName, nameOffset, nameLength);
+        this.referenceName = referenceName;
+        this.flags = flags;
+        this.alignmentStart = alignmentStart;
+        this.alignmentEnd = alignmentEnd;
+        this.mateAlignmentStart = mateAlignmentStart;
+        ensureBlocks(blockCount);
+        this.blockCount = blockCount;
+        return this;
+    }
+
+    public void setBlock(int i, int start, int stop) {
+        blockStarts[i] = start;
+        blockStops[i] = stop;
+    }
+
+    private void setName(byte[] bytes, int offset, int length) {
+        if (name.length < length) {
+            name = new byte[Math.max(length, name.length * 2)];
+        }
+        System.arraycopy(bytes, offset, name, 0, length);
+        nameLength = length;
+        // FNV-1a, finished with the murmur3 mixer
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (bytes[offset + i] & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        this.nameHash = hash;
+    }
+
+    private void ensureBlocks(int count) {
+        if (blockStarts.length < count) {
+            blockStarts = new int[Math.max(count, blockStarts.length * 2)];
+            blockStops = new int[blockStarts.length];
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeShort(nameLength);
+        out.write(name, 0, nameLength);
+        out.writeUTF(referenceName);
+        out.writeInt(flags);
+        out.writeInt(alignmentStart);
+        out.writeInt(alignmentEnd);
+        out.writeInt(mateAlignmentStart);
+        out.writeInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            out.writeInt(blockStarts[i]);
+            out.writeInt(blockStops[i]);
+        }
+    }
+
+    public AlignedRead read(DataInput in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (name.length < length) {
+            name = new byte[Math.max(length, name.length * 2)];
+        }
+        in.readFully(name, 0, length);
+        setName(name, 0, length);
+        this.referenceName = in.readUTF();
+        this.flags = in.readInt();
+        this.alignmentStart = in.readInt();
+        this.alignmentEnd = in.readInt();
+        this.mateAlignmentStart = in.readInt();
+        this.blockCount = in.readInt();
+        ensureBlocks(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            blockStarts[i] = in.readInt();
+            blockStops[i] = in.readInt();
+        }
+        return this;
+    }
+
+    public long estimatedBytes() {
+        // object + fields, name string and both block arrays
+        return 48 + 16 + name.length + 2 * (16 + 4L * blockStarts.length);
+    }
+
+    public long getNameHash() {
+        return nameHash;
+    }
+
+    public boolean hasSameName(AlignedRead other) {
+        return nameHash == other.nameHash && Arrays.equals(name, 0, nameLength, other.name, 0, other.nameLength);
+    }
+
+    public static int compareNames(AlignedRead a, AlignedRead b) {
+        // any total order that puts equal names next to each other, hash first → rarely touches the bytes
+        int byHash = Long.compare(a.nameHash, b.nameHash);
+        return byHash != 0 ? byHash : Arrays.compare(a.name, 0, a.nameLength, b.name, 0, b.nameLength);
+    }
+
+    public String getReferenceName() {
+        return referenceName;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean getFirstOfPairFlag() {
+        return (flags & FIRST_OF_PAIR) != 0;
+    }
+
+    public boolean getMateNegativeStrandFlag() {
+        return (flags & MATE_NEGATIVE_STRAND) != 0;
+    }
+
+    public int getAlignmentStart() {
+        return alignmentStart;
+    }
+
+    public int getAlignmentEnd() {
+        return alignmentEnd;
+    }
+
+    public int getMateAlignmentStart() {
+        return mateAlignmentStart;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getBlockStart(int i) {
+        return blockStarts[i];
+    }
+
+    public int getBlockStop(int i) {
+        return blockStops[i];
+    }
+}
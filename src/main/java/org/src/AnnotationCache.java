@@ -0,0 +1,172 @@
+package org.src;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class AnnotationCache {
+    // parsed genes / transcripts / exons / cds of a gtf, so that later runs skip the text parsing
+    // binary layout (big endian):
+    // int magic | int version | gtf fingerprint | int #strings | int #genes
+    // #strings x (int #bytes | utf-8 bytes)
+    // per gene: int id | int name | int biotype | int chr | char strand | int start | int end | int #transcripts
+    //   per transcript: int id | char strand | int start | int stop
+    //                   int #exons | #exons x (int start | int end | int pos)
+    //                   int #cds   | #cds   x (int start | int end | int pos)
+    // strings are referenced by their index in the string table, -1 is null
+    public static final String SUFFIX = ".cache";
+    private static final int MAGIC = 0x50534941; // "PSIA"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + GtfFingerprint.BYTES + 4 + 4;
+
+    public static File cacheFile(File gtf) {
+        return new File(gtf.getPath() + SUFFIX);
+    }
+
+    public static boolean load(Genome genome, GtfFingerprint fingerprint) throws IOException {
+        // returns false if there is no cache or it belongs to a different gtf / version
+        File cache = cacheFile(fingerprint.getGtf());
+        if (!cache.isFile()) {
+            return false;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || !fingerprint.matches(buffer, 8)) {
+            return false;
+        }
+        buffer.position(8 + GtfFingerprint.BYTES);
+
+        try {
+            String[] strings = new String[buffer.getInt()];
+            int geneCount = buffer.getInt();
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            for (int i = 0; i < geneCount; i++) {
+                String geneId = string(strings, buffer.getInt());
+                String geneName = string(strings, buffer.getInt());
+                String bioType = string(strings, buffer.getInt());
+                String chr = string(strings, buffer.getInt());
+                char strand = buffer.getChar();
+                int start = buffer.getInt();
+                int end = buffer.getInt();
+                Gene gene = genome.addGene(geneId, start, end, geneName, chr, strand, bioType);
+
+                int transcriptCount = buffer.getInt();
+                for (int t = 0; t < transcriptCount; t++) {
+                    Transcript transcript = new Transcript(string(strings, buffer.getInt()), buffer.getChar(), buffer.getInt(), buffer.getInt());
+                    int exonCount = buffer.getInt();
+                    for (int e = 0; e < exonCount; e++) {
+                        transcript.addExon(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                    }
+                    int cdsCount = buffer.getInt();
+                    for (int c = 0; c < cdsCount; c++) {
+                        transcript.addCds(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                    }
+                    gene.addTranscript(transcript);
+                }
+            }
+        } catch (RuntimeException e) {
+            // truncated / corrupt cache → fall back to the gtf
+            genome.clear();
+            return false;
+        }
+        return true;
+    }
+
+    public static void write(Genome genome, GtfFingerprint fingerprint) throws IOException {
+        List<Gene> genes = genome.getGenes();
+        HashMap<String, Integer> stringIndex = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        for (Gene gene : genes) {
+            index(gene.getGeneId(), stringIndex, strings);
+            index(gene.getGeneName(), stringIndex, strings);
+            index(gene.getBioType(), stringIndex, strings);
+            index(gene.getChr(), stringIndex, strings);
+            for (Transcript transcript : gene.getTranscriptList()) {
+                index(transcript.getTranscriptId(), stringIndex, strings);
+            }
+        }
+
+        // written next to the target and moved in place, a concurrent job may be reading the old one.
+        // every writer has its own temp file → jobs starting on the same fresh gtf do not move each other's
+        File cache = cacheFile(fingerprint.getGtf());
+        File tmp = Files.createTempFile(cache.getAbsoluteFile().getParentFile().toPath(), cache.getName() + ".", ".tmp").toFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                fingerprint.write(out);
+                out.writeInt(strings.size());
+                out.writeInt(genes.size());
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                for (Gene gene : genes) {
+                    out.writeInt(ref(gene.getGeneId(), stringIndex));
+                    out.writeInt(ref(gene.getGeneName(), stringIndex));
+                    out.writeInt(ref(gene.getBioType(), stringIndex));
+                    out.writeInt(ref(gene.getChr(), stringIndex));
+                    out.writeChar(gene.getStrand());
+                    out.writeInt(gene.getStart());
+                    out.writeInt(gene.getStop());
+                    out.writeInt(gene.getTranscriptList().size());
+                    for (Transcript transcript : gene.getTranscriptList()) {
+                        out.writeInt(ref(transcript.getTranscriptId(), stringIndex));
+                        out.writeChar(transcript.getStrand());
+                        out.writeInt(transcript.getStart());
+                        out.writeInt(transcript.getStop());
+                        out.writeInt(transcript.getExonList().size());
+                        for (Exon exon : transcript.getExonList()) {
+                            out.writeInt(exon.getStart());
+                            out.writeInt(exon.getStop());
+                            out.writeInt(exon.getPos());
+                        }
+                        out.writeInt(transcript.getCdsList().size());
+                        for (Region cds : transcript.getCdsList()) {
+                            out.writeInt(cds.getStart());
+                            out.writeInt(cds.getStop());
+                            out.writeInt(cds.getPos());
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // nothing left behind if writing failed, after the move there is nothing to delete
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void index(String s, HashMap<String, Integer> stringIndex, ArrayList<String> strings) {
+        if (s != null && !stringIndex.containsKey(s)) {
+            stringIndex.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    private static int ref(String s, HashMap<String, Integer> stringIndex) {
+        return s == null ? -1 : stringIndex.get(s);
+    }
+
+    private static String string(String[] strings, int ref) {
+        return ref == -1 ? null : strings[ref];
+    }
+}
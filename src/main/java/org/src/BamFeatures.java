@@ -1,190 +1,407 @@
 package org.src;
 
-import augmentedTree.IntervalTree;
 import net.sf.samtools.*;
 
 import javax.swing.*;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class BamFeatures {
 
+    private final File bamFile;
     private final SAMFileReader samReader;
     private final Genome genome;
 
-    private final HashSet<Gene> mappedGenes = new HashSet();
+    // read evidence of this sample, the genome itself is never modified and can be shared
+    private final SampleEvidence evidence;
+    // records kept and rejected per reason, summed over all workers
+    private final ReadFilter readFilter = new ReadFilter();
+    // heap for reads waiting on their mate, split between the chromosome workers
+    public static final long DEFAULT_PAIR_MEMORY = 1024L << 20;
+    private long pairMemory = DEFAULT_PAIR_MEMORY;
+    // threads inflating the BGZF blocks of a bam that is read as a whole
+    private int inflateThreads = defaultInflateThreads(1);
+    // rows of finished chromosomes go out while the rest is still processed, only set by processBAM(threads, outPath)
+    private PsiWriter psiWriter;
+    private PsiWriter.Format outputFormat = PsiWriter.Format.TSV;
+    // pipeline of a single reader: reads per batch and batches in flight between two stages
+    private static final int BATCH_SIZE = 1 << 10;
+    private static final int QUEUED_BATCHES = 8;
 
     public BamFeatures(String pathToBAM, String pathToGTF) throws IOException {
-        this.genome = new Genome();
-        this.genome.readGTF(pathToGTF);
-        this.samReader = new SAMFileReader(new File(pathToBAM), false);
+        this(pathToBAM, readGenome(pathToGTF));
+    }
+
+    public BamFeatures(String pathToBAM, Genome genome) {
+        this.genome = genome;
+        this.evidence = new SampleEvidence(genome);
+        this.bamFile = new File(pathToBAM);
+        this.samReader = new SAMFileReader(bamFile, false);
         this.samReader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
     }
 
-    public void processBAM() {
-        Iterator<SAMRecord> it = samReader.iterator();
-        HashMap<String, SAMRecord> seenEntries = new HashMap<>();
-        String currentChr = null;
+    private static Genome readGenome(String pathToGTF) throws IOException {
+        Genome genome = new Genome();
+        genome.readGTF(pathToGTF);
+        return genome;
+    }
 
-        while (it.hasNext()) {
-            SAMRecord current = it.next();
-
-            if (currentChr == null) {
-                currentChr = current.getReferenceName();
-            } else if (!currentChr.equals(current.getReferenceName())) {
-                // clear seen
-                seenEntries.clear();
-                // clear chr in intervaltree as well
-                genome.getIntervalTreeMap().get(currentChr).clear();
-                // update currChr
-                currentChr = current.getReferenceName();
-            }
+    public void setPairMemory(long bytes) {
+        this.pairMemory = bytes;
+    }
 
-            if (!flagCheck(current)) {
-                continue;
+    public ReadFilter getReadFilter() {
+        return readFilter;
+    }
+
+    public void setOutputFormat(PsiWriter.Format format) {
+        this.outputFormat = format;
+    }
+
+    public static int defaultInflateThreads(int jobs) {
+        // samples processed in parallel share the cores
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, jobs));
+    }
+
+    public void setInflateThreads(int threads) {
+        this.inflateThreads = threads;
+    }
+
+    public void processBAM() throws IOException {
+        SAMFileHeader header = samReader.getFileHeader();
+        boolean coordinateSorted = header.getSortOrder() == SAMFileHeader.SortOrder.coordinate;
+        // blocks are inflated in parallel, records still arrive in file order
+        try (BamRecordReader records = new BamRecordReader(bamFile, header, inflateThreads)) {
+            processPipelined(records, coordinateSorted, pairMemory);
+        }
+    }
+
+    public void processBAM(int threads, String outPath) throws IOException {
+        // processes the bam and writes the psi rows of every chromosome as soon as it is done
+        psiWriter = newPsiWriter(outPath);
+        try {
+            processBAM(threads);
+            psiWriter.finish();
+        } catch (Throwable t) {
+            try {
+                psiWriter.abort();
+            } catch (IOException e) {
+                t.addSuppressed(e);
             }
+            throw t;
+        } finally {
+            psiWriter = null;
+        }
+    }
+
+    public void processBAM(int threads) throws IOException {
+        if (threads <= 1 || !samReader.hasIndex()) {
+            processBAM();
+            return;
+        }
 
-            // track entries
-            if (!seenEntries.containsKey(current.getReadName())) {
-                seenEntries.put(current.getReadName(), current);
+        // largest chromosomes first so that the pool does not wait on chr1 at the very end
+        List<SAMSequenceRecord> sequences = new ArrayList<>(samReader.getFileHeader().getSequenceDictionary().getSequences());
+        sequences.sort(Comparator.comparingInt(SAMSequenceRecord::getSequenceLength).reversed());
+
+        // workers can still be running after a failure, when the field is already reset
+        PsiWriter writer = psiWriter;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (SAMSequenceRecord sequence : sequences) {
+            String chr = sequence.getSequenceName();
+            // nothing to annotate on this chromosome
+            if (!genome.getGeneIndexMap().containsKey(chr)) {
+                if (writer != null) {
+                    writer.chromosomeDone(chr);
+                }
                 continue;
             }
+            results.add(pool.submit(() -> {
+                processChromosome(chr, pairMemory / threads);
+                if (writer != null) {
+                    writer.chromosomeDone(chr);
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
 
-            // at this point we already have the read pair
-            // get mate
-            SAMRecord mate = seenEntries.get(current.getReadName());
-            ReadPair pair;
-            if (mate.getFirstOfPairFlag()) {
-                pair = new ReadPair(mate, current, !mate.getMateNegativeStrandFlag());
-            } else {
-                pair = new ReadPair(current, mate, !current.getMateNegativeStrandFlag());
+        try {
+            for (Future<?> result : results) {
+                result.get();
             }
-            int cgenes = pair.getcgenes(genome);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing " + bamFile, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to process " + bamFile, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void processChromosome(String chr, long memoryBudget) throws IOException {
+        // SAMFileReader is not thread safe → every worker opens its own reader on the shared index
+        SAMFileReader reader = new SAMFileReader(bamFile, false);
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+        try {
+            // index queries are always coordinate sorted
+            processRecords(reader.query(chr, 0, 0, false), true, memoryBudget);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void processRecords(Iterator<SAMRecord> it, boolean coordinateSorted, long memoryBudget) throws IOException {
+        // one pair object per worker, refilled for every mate pair
+        ReadPair pair = new ReadPair();
+        if (coordinateSorted) {
+            pair.setGeneSweep(new GeneSweep(genome));
+        }
+        try (MatePairer pairer = new MatePairer(coordinateSorted, memoryBudget, (mate, current) -> processPair(pair, mate, current))) {
+            ReadFilter filter = new ReadFilter();
+            String currentChr = null;
 
-            if (cgenes == 0) {
-                int igenes = pair.getigenes(genome);
-                if (igenes > 0) {
+            while (it.hasNext()) {
+                SAMRecord current = it.next();
+
+                if (currentChr == null) {
+                    currentChr = current.getReferenceName();
+                } else if (!currentChr.equals(current.getReferenceName())) {
+                    // mates never span chromosomes (see flagCheck) → nothing left to pair in sorted input
+                    if (coordinateSorted) {
+                        pairer.finish();
+                    }
+                    // update currChr
+                    currentChr = current.getReferenceName();
+                }
+
+                if (!filter.accept(current.getFlags(), current.getReferenceIndex(), current.getMateReferenceIndex())) {
                     continue;
                 }
-            }
 
-            // check for split inconsistency
-            int nsplit = pair.getNsplit();
-            if (nsplit == -1) {
-                continue;
+                // track entries, only the fields needed for the pair are kept
+                pairer.add(pairer.obtain().set(current));
             }
+            pairer.finish();
+            readFilter.add(filter);
+        }
+    }
 
+    private void processPipelined(BamRecordReader reader, boolean coordinateSorted, long memoryBudget) throws IOException {
+        // decode + filter → pair → classify + count, each stage on its own thread and connected by bounded
+        // batch channels → reading the bam overlaps with pairing and transcript classification.
+        // the classify stage runs on the calling thread, it is the only one writing evidence
+        BatchChannel records = new BatchChannel(QUEUED_BATCHES, BATCH_SIZE);
+        BatchChannel pairs = new BatchChannel(QUEUED_BATCHES, 2 * BATCH_SIZE);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> stages = Collections.synchronizedList(new ArrayList<>());
+        stages.add(Thread.currentThread());
+        startStage("psi-decode", stages, failure, () -> decodeStage(reader, records));
+        startStage("psi-pair", stages, failure, () -> pairStage(records, pairs, coordinateSorted, memoryBudget));
 
-            ArrayList<Gene> transcriptomicGenes = pair.getTranscriptomicGenes();
-            // skip if empty
-            if (transcriptomicGenes.isEmpty()) {
-                continue;
+        try {
+            classifyStage(pairs, coordinateSorted);
+        } catch (InterruptedException e) {
+            if (failure.compareAndSet(null, e)) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while processing " + bamFile, e);
             }
-            mappedGenes.addAll(transcriptomicGenes);
+        } catch (Throwable t) {
+            // classify failed first → the other stages are blocked on full channels and have to be stopped,
+            // otherwise t is only a consequence of the failure reported below
+            if (failure.compareAndSet(null, t)) {
+                throw t;
+            }
+        } finally {
+            for (Thread stage : stages.subList(1, stages.size())) {
+                if (failure.get() != null) {
+                    stage.interrupt();
+                }
+                try {
+                    stage.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure.get() != null) {
+            // a failing stage interrupts all others, including this thread
+            Thread.interrupted();
+            throw new IOException("Failed to process " + bamFile, failure.get());
         }
     }
 
-    public void getPctSplicedCounts(String outPath) throws IOException {
-        File outFile = new File(outPath);
-        File parentDir = outFile.getParentFile();
-        parentDir.mkdirs();
-        BufferedWriter br = new BufferedWriter(new FileWriter(outFile));
-        br.write("gene\texon\tnum_incl_reads\tnum_excl_reads\tnum_total_reads\tpsi");
-
-        for (Gene g : mappedGenes) {
+    private interface Stage {
+        void run() throws IOException, InterruptedException;
+    }
 
-            if (g.getStrand() == '-') {
-//                g.invertTranscripts();
-                g.invertTranscriptsCds();
+    private static void startStage(String name, List<Thread> stages, AtomicReference<Throwable> failure, Stage body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable t) {
+                // first failure wins, the others are mostly the interrupts it caused
+                if (failure.compareAndSet(null, t)) {
+                    synchronized (stages) {
+                        stages.forEach(Thread::interrupt);
+                    }
+                }
             }
-//            g.generateIntrons();
-            g.generateCDSIntrons();
-//            ArrayList<Exon> skippedExons = g.getSkippedExons();
-            ArrayList<Region> skippedExons = g.getSkippedCds();
+        }, name);
+        thread.setDaemon(true);
+        stages.add(thread);
+        thread.start();
+    }
 
-            if (skippedExons == null) {
+    private void decodeStage(BamRecordReader reader, BatchChannel out) throws IOException, InterruptedException {
+        ReadFilter filter = new ReadFilter();
+        BatchChannel.Batch batch = out.obtain();
+        while (reader.next()) {
+            // filtered on the fixed fields, only kept records get their name and cigar decoded
+            if (!filter.accept(reader.getFlags(), reader.getReferenceIndex(), reader.getMateReferenceIndex())) {
                 continue;
             }
+            reader.decode(batch.add());
+            if (batch.isFull()) {
+                out.send(batch);
+                batch = out.obtain();
+            }
+        }
+        out.close(batch);
+        readFilter.add(filter);
+    }
 
-            IntervalTree<Region> mappedAliReadsTree = g.getMappedAliBlocksTree();
-            IntervalTree<Region> gappedAliReadsTree = g.getGappedAliBlocksTree();
-
-//            for (Exon skippedExon : skippedExons) {
-            for (Region skippedExon : skippedExons) {
-                ArrayList<Region> inclusionReads = mappedAliReadsTree.getIntervalsSpannedBy(skippedExon.getStart(), skippedExon.getStop(), new ArrayList<>());
-                HashSet<String> incUniq = new HashSet<>();
-                for (Region region : inclusionReads) {
-                    incUniq.add(region.getId());
+    private void pairStage(BatchChannel in, BatchChannel out, boolean coordinateSorted, long memoryBudget) throws IOException, InterruptedException {
+        PairSink sink = new PairSink(out);
+        try (MatePairer pairer = new MatePairer(coordinateSorted, memoryBudget, sink)) {
+            String currentChr = null;
+            boolean last = false;
+            while (!last) {
+                BatchChannel.Batch batch = in.receive();
+                for (int i = 0; i < batch.size(); i++) {
+                    // the pairer keeps the read → the batch gets a pooled one in return
+                    AlignedRead read = batch.swap(i, pairer.obtain());
+                    if (currentChr != null && !currentChr.equals(read.getReferenceName()) && coordinateSorted) {
+                        // mates never span chromosomes (see flagCheck) → nothing left to pair in sorted input
+                        pairer.finish();
+                    }
+                    currentChr = read.getReferenceName();
+                    pairer.add(read);
                 }
+                last = batch.isLast();
+                in.recycle(batch);
+            }
+            pairer.finish();
+            sink.close();
+        }
+    }
 
-                int incUniqCount = incUniq.size();
+    private static class PairSink implements MatePairer.PairHandler {
+        // copies the mates of every pair into batches, slot 2i is the stored mate and 2i + 1 the current read
+        private final BatchChannel out;
+        private BatchChannel.Batch batch;
 
-                // skip unmapped exons
-                HashSet<Region> exclusionReads = gappedAliReadsTree.getIntervalsSpanning(skippedExon.getStart(), skippedExon.getStop(), new HashSet<>());
-                HashSet<String> excUniq = new HashSet<>();
+        PairSink(BatchChannel out) throws InterruptedException {
+            this.out = out;
+            this.batch = out.obtain();
+        }
 
-                HashSet<String> specialReads = new HashSet<>();
-                for (Region region : exclusionReads) {
-                    if (region.getTranscriptId().equals(skippedExon.getTranscriptId()) && region.getType().equals("GAP BETWEEN 2 READS")) {
-                        specialReads.add(region.getId());
-                        continue;
-                    }
-                    excUniq.add(region.getId());
+        @Override
+        public void pair(AlignedRead stored, AlignedRead current) throws IOException {
+            batch.add().set(stored);
+            batch.add().set(current);
+            if (batch.isFull()) {
+                try {
+                    out.send(batch);
+                    batch = out.obtain();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while handing over read pairs");
                 }
+            }
+        }
 
-                // handle specific edge case where a skipped exon is not mapped directly by alignment block
-                // but read pair is the only one explaining said transcript
-                specialReads.removeAll(incUniq);
-                int numSpecialreads = specialReads.size();
-                incUniqCount += numSpecialreads;
+        void close() throws InterruptedException {
+            out.close(batch);
+        }
+    }
 
-                if (incUniq.isEmpty() && excUniq.isEmpty()) {
-                    continue;
+    private void classifyStage(BatchChannel in, boolean coordinateSorted) throws IOException, InterruptedException {
+        ReadPair pair = new ReadPair();
+        if (coordinateSorted) {
+            pair.setGeneSweep(new GeneSweep(genome));
+        }
+        String currentChr = null;
+        boolean last = false;
+        while (!last) {
+            BatchChannel.Batch batch = in.receive();
+            for (int i = 0; i + 1 < batch.size(); i += 2) {
+                String chr = batch.get(i).getReferenceName();
+                if (coordinateSorted && psiWriter != null && currentChr != null && !currentChr.equals(chr)) {
+                    // pairs of sorted input come chromosome by chromosome → everything up to currentChr is counted
+                    psiWriter.chromosomesDoneUpTo(currentChr);
                 }
+                currentChr = chr;
+                processPair(pair, batch.get(i), batch.get(i + 1));
+            }
+            last = batch.isLast();
+            in.recycle(batch);
+        }
+    }
+
+    private void processPair(ReadPair pair, AlignedRead mate, AlignedRead current) {
+        // at this point we already have the read pair
+        if (mate.getFirstOfPairFlag()) {
+            pair.set(mate, current, !mate.getMateNegativeStrandFlag());
+        } else {
+            pair.set(current, mate, !current.getMateNegativeStrandFlag());
+        }
+        int cgenes = pair.getcgenes(genome);
 
-                int total = incUniqCount + excUniq.size();
-                double pct = (double) incUniqCount / total;
-
-                // exons  which shouldn't exist (but i find them)
-                // FIXED: Problem was that I also used the exon coordinates to determine the skipped exons.
-                // Now I use cds for skippedExonEvents and from there on I use exon coordinates
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000109674.3\t178260937-178261012")) {
-//                    continue;
-//                }
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000109674.3\t178262630-178262797")) {
-//                    continue;
-//                }
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000109674.3\t178272534-178272704")) {
-//                    continue;
-//                }
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000260537.1\t70351399-70351492")) {
-//                    continue;
-//                }
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000151012.9\t139103451-139103548")) {
-//                    continue;
-//                }
-//                if ((g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1)).equals("ENSG00000079689.9\t25682179-25682235")) {
-//                    continue;
-//                }
-
-                br.write("\n" + g.getGeneId() + "\t" + skippedExon.getStart() + "-" + (skippedExon.getStop() + 1) + "\t" + incUniqCount + "\t" + excUniq.size() + "\t" + total + "\t" + pct);
+        if (cgenes == 0) {
+            int igenes = pair.getigenes(genome);
+            if (igenes > 0) {
+                return;
             }
         }
-        br.flush();
-        br.close();
+
+        // check for split inconsistency
+        int nsplit = pair.getNsplit();
+        if (nsplit == -1) {
+            return;
+        }
+
+
+        pair.getTranscriptomicGenes(evidence);
+    }
+
+    public void getPctSplicedCounts(String outPath) throws IOException {
+        // rows in genomic order, chromosomes are formatted in parallel (see PsiWriter)
+        newPsiWriter(outPath).finish();
+    }
+
+    private PsiWriter newPsiWriter(String outPath) throws IOException {
+        List<String> chromosomes = new ArrayList<>();
+        for (SAMSequenceRecord sequence : samReader.getFileHeader().getSequenceDictionary().getSequences()) {
+            chromosomes.add(sequence.getSequenceName());
+        }
+        return new PsiWriter(outPath, outputFormat, genome, evidence, chromosomes);
     }
 
     public boolean flagCheck(SAMRecord record) {
-        // ignore based on flags
-        boolean isPrimary = !record.getNotPrimaryAlignmentFlag();
-        boolean isMateMapped = !record.getMateUnmappedFlag();
-        boolean isMapped = !record.getReadUnmappedFlag();
-        boolean sameChr = record.getReferenceName().equals(record.getMateReferenceName());
-        boolean oppStrand = record.getReadNegativeStrandFlag() != record.getMateNegativeStrandFlag();
-        boolean paired = record.getReadPairedFlag();
-        return isPrimary && isMapped && isMateMapped && sameChr && oppStrand && paired;
+        return flagCheck(record.getFlags(), record.getReferenceIndex(), record.getMateReferenceIndex());
+    }
+
+    public boolean flagCheck(int flags, int referenceIndex, int mateReferenceIndex) {
+        // ignore based on flags (see ReadFilter)
+        return ReadFilter.reject(flags, referenceIndex, mateReferenceIndex) == null;
     }
 }
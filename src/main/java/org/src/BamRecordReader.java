@@ -0,0 +1,171 @@
+package org.src;
+
+import net.sf.samtools.SAMFileHeader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+public class BamRecordReader implements Closeable {
+    // records of a whole bam in file order, decompressed by a ParallelBgzfInputStream.
+    // only the fixed fields of a record are read up front, name and cigar only if the record is decoded
+    // and sequence, qualities and tags are always skipped → no SAMRecord, bases or tag maps per read.
+    // the header comes from the SAMFileReader that already parsed it, here it is only skipped
+    private static final int CORE_BYTES = 32;
+    // cigar operations consuming the reference, those of them that are aligned bases (M = X)
+    private static final int CONSUMES_REFERENCE = 1 << 0 | 1 << 2 | 1 << 3 | 1 << 7 | 1 << 8;
+    private static final int ALIGNED = 1 << 0 | 1 << 7 | 1 << 8;
+
+    private final File bamFile;
+    private final ParallelBgzfInputStream in;
+    private final String[] referenceNames;
+    private byte[] buffer = new byte[256];
+
+    // fixed fields of the current record
+    private int referenceIndex;
+    private int position;
+    private int readNameLength;
+    private int cigarLength;
+    private int flags;
+    private int mateReferenceIndex;
+    private int matePosition;
+    // bytes of the current record not read yet
+    private int remaining;
+
+    public BamRecordReader(File bamFile, SAMFileHeader header, int threads) throws IOException {
+        this.bamFile = bamFile;
+        this.in = new ParallelBgzfInputStream(bamFile, threads);
+        this.referenceNames = new String[header.getSequenceDictionary().size()];
+        for (int i = 0; i < referenceNames.length; i++) {
+            referenceNames[i] = header.getSequence(i).getSequenceName();
+        }
+        skipHeader();
+    }
+
+    private void skipHeader() throws IOException {
+        readFully(4);
+        if (buffer[0] != 'B' || buffer[1] != 'A' || buffer[2] != 'M' || buffer[3] != 1) {
+            throw new IOException("Not a bam file: " + bamFile);
+        }
+        // text, then name and length of every reference
+        skipFully(readInt());
+        int references = readInt();
+        for (int i = 0; i < references; i++) {
+            skipFully(readInt() + 4L);
+        }
+    }
+
+    public boolean next() throws IOException {
+        // moves to the next record, false at the end of the file
+        skipFully(remaining);
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        readFully(3);
+        int blockSize = first | (buffer[0] & 0xff) << 8 | (buffer[1] & 0xff) << 16 | (buffer[2] & 0xff) << 24;
+        if (blockSize < CORE_BYTES) {
+            throw new IOException("Invalid bam record in " + bamFile);
+        }
+        readFully(CORE_BYTES);
+        referenceIndex = i32(0);
+        position = i32(4);
+        readNameLength = buffer[8] & 0xff;
+        cigarLength = u16(12);
+        flags = u16(14);
+        mateReferenceIndex = i32(20);
+        matePosition = i32(24);
+        remaining = blockSize - CORE_BYTES;
+        return true;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getReferenceIndex() {
+        return referenceIndex;
+    }
+
+    public int getMateReferenceIndex() {
+        return mateReferenceIndex;
+    }
+
+    public AlignedRead decode(AlignedRead target) throws IOException {
+        // name and alignment blocks of the current record
+        int length = readNameLength + 4 * cigarLength;
+        if (length > remaining) {
+            throw new IOException("Invalid bam record in " + bamFile);
+        }
+        readFully(length);
+        remaining -= length;
+        int blocks = 0;
+        int referenceLength = 0;
+        for (int i = 0; i < cigarLength; i++) {
+            int op = i32(readNameLength + 4 * i);
+            if ((ALIGNED >> (op & 0xf) & 1) != 0) {
+                blocks++;
+            }
+            if ((CONSUMES_REFERENCE >> (op & 0xf) & 1) != 0) {
+                referenceLength += op >>> 4;
+            }
+        }
+        int start = position + 1;
+        String referenceName = referenceIndex >= 0 && referenceIndex < referenceNames.length ? referenceNames[referenceIndex] : null;
+        // name is NUL terminated
+        target.set(buffer, 0, Math.max(0, readNameLength - 1), referenceName, flags, start, start + referenceLength - 1, matePosition + 1, blocks);
+
+        int block = 0;
+        int pos = start;
+        for (int i = 0; i < cigarLength; i++) {
+            int op = i32(readNameLength + 4 * i);
+            int opLength = op >>> 4;
+            if ((ALIGNED >> (op & 0xf) & 1) != 0) {
+                target.setBlock(block++, pos, pos + opLength - 1);
+            }
+            if ((CONSUMES_REFERENCE >> (op & 0xf) & 1) != 0) {
+                pos += opLength;
+            }
+        }
+        return target;
+    }
+
+    private void readFully(int length) throws IOException {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Premature end of file " + bamFile);
+            }
+            read += n;
+        }
+    }
+
+    private void skipFully(long length) throws IOException {
+        if (in.skip(length) != length) {
+            throw new EOFException("Premature end of file " + bamFile);
+        }
+    }
+
+    private int readInt() throws IOException {
+        readFully(4);
+        return i32(0);
+    }
+
+    private int u16(int at) {
+        return (buffer[at] & 0xff) | (buffer[at + 1] & 0xff) << 8;
+    }
+
+    private int i32(int at) {
+        return u16(at) | u16(at + 2) << 16;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
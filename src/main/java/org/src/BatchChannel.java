@@ -0,0 +1,85 @@
+package org.src;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class BatchChannel {
+    // bounded hand over of AlignedRead batches between two pipeline stages: a batch travels to the consumer
+    // and comes back empty → the producer blocks once all batches are in flight and nothing is allocated per batch
+    private final ArrayBlockingQueue<Batch> full;
+    private final ArrayBlockingQueue<Batch> free;
+
+    public BatchChannel(int batches, int batchSize) {
+        this.full = new ArrayBlockingQueue<>(batches);
+        this.free = new ArrayBlockingQueue<>(batches);
+        for (int i = 0; i < batches; i++) {
+            free.add(new Batch(batchSize));
+        }
+    }
+
+    public Batch obtain() throws InterruptedException {
+        // empty batch for the producer
+        Batch batch = free.take();
+        batch.count = 0;
+        batch.last = false;
+        return batch;
+    }
+
+    public void send(Batch batch) throws InterruptedException {
+        full.put(batch);
+    }
+
+    public void close(Batch batch) throws InterruptedException {
+        // final (possibly partial) batch of the stream
+        batch.last = true;
+        full.put(batch);
+    }
+
+    public Batch receive() throws InterruptedException {
+        return full.take();
+    }
+
+    public void recycle(Batch batch) throws InterruptedException {
+        free.put(batch);
+    }
+
+    public static class Batch {
+        private final AlignedRead[] reads;
+        private int count;
+        private boolean last;
+
+        private Batch(int size) {
+            this.reads = new AlignedRead[size];
+            for (int i = 0; i < size; i++) {
+                reads[i] = new AlignedRead();
+            }
+        }
+
+        public AlignedRead add() {
+            // next slot, filled in place by the caller
+            return reads[count++];
+        }
+
+        public AlignedRead swap(int i, AlignedRead replacement) {
+            // takes the read out of the batch (e.g. for the MatePairer which keeps it)
+            AlignedRead read = reads[i];
+            reads[i] = replacement;
+            return read;
+        }
+
+        public AlignedRead get(int i) {
+            return reads[i];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public boolean isFull() {
+            return count == reads.length;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+    }
+}
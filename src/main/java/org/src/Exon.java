@@ -3,16 +3,15 @@ package org.src;
 import augmentedTree.Interval;
 
 public class Exon implements Interval {
-    private int length;
+    private final int length;
     private final int start;
     private final int stop;
-    private int pos;
-    private String transcriptId;
-    private String oriID; // for debugging
+    private final int pos;
+    private final String transcriptId;
 
-    public Exon(int start, int end, int pos, int length, String ori) {
+    public Exon(int start, int end, int pos, int length, String transcriptId) {
         this.length = length;
-        this.oriID = ori;
+        this.transcriptId = transcriptId;
         this.start = start;
         this.stop = end;
         this.pos = pos;
@@ -30,13 +29,9 @@ public class Exon implements Interval {
         return pos;
     }
 
-    public void setPos(int pos) {
-        this.pos = pos;
-    }
-
     @Override
     public String toString() {
-        return this.oriID + ": " + this.start + "-" + this.stop + " " + "[" + this.pos +"] Length:" + this.length + " → " + getTranscriptId();
+        return this.transcriptId + ": " + this.start + "-" + this.stop + " " + "[" + this.pos +"] Length:" + this.length;
     }
     public int getLength() {
         return length;
@@ -45,8 +40,4 @@ public class Exon implements Interval {
     public String getTranscriptId() {
         return transcriptId;
     }
-
-    public void setTranscriptId(String transcriptId) {
-        this.transcriptId = transcriptId;
-    }
 }
@@ -1,25 +1,24 @@
 package org.src;
 
 import augmentedTree.Interval;
-import augmentedTree.IntervalTree;
-import net.sf.samtools.AlignmentBlock;
-import net.sf.samtools.SAMRecord;
 
 import java.util.*;
 
 public class Gene implements Interval {
+    private int index = -1;
     private final int start;
     private final int end;
     private final String geneId;
-    private final ArrayList<Transcript> transcriptList;
+    private List<Transcript> transcriptList;
     private final String geneName;
     private final String bioType;
     private final String chr;
     private final char strand;
-    private final ArrayList<Intron> introns = new ArrayList<>();
-    private IntervalTree<Region> mappedAliBlocksTree = null;
-    private ArrayList<Region> mappedAliBlockSet = new ArrayList<>();
-    private final IntervalTree<Region> gappedAliBlocksTree = new IntervalTree<>();
+    private boolean sealed = false;
+    private SpliceGraph spliceGraph;
+    // per transcript the index of the first transcript with the same id → transcripts compare as ints
+    private int[] transcriptOrdinals;
+
     public Gene(String geneId, int start, int end, String geneName, String chr, char strand, String bioType) {
         this.geneId = geneId;
         this.geneName = geneName;
@@ -31,22 +30,40 @@ public class Gene implements Interval {
         this.transcriptList = new ArrayList<>();
     }
 
+    public int getIndex() {
+        return index;
+    }
+
     public String getGeneId() {
         return geneId;
     }
 
-    public void generateIntrons() {
+    public void seal(int index) {
+        // called once by Genome after the gtf is parsed, from then on the gene is read only
+        // and can be shared between samples and threads
+        // index is the position in Genome.getGenes() and keys all per sample arrays
+        this.index = index;
         for (Transcript transcript : transcriptList) {
-            for (int i = 0; i < transcript.getExonList().size() - 1; i++) {
-                int intronStart = transcript.getExonList().get(i).getStop() + 1;
-                int intronEnd = transcript.getExonList().get(i + 1).getStart() - 1;
-                Intron intron = new Intron(intronStart, intronEnd);
-                introns.add(intron);
-            }
+            transcript.seal();
+        }
+        this.transcriptList = Collections.unmodifiableList(transcriptList);
+        this.spliceGraph = new SpliceGraph(transcriptList);
+        this.transcriptOrdinals = new int[transcriptList.size()];
+        HashMap<String, Integer> firstById = new HashMap<>();
+        for (int t = 0; t < transcriptOrdinals.length; t++) {
+            Integer first = firstById.putIfAbsent(transcriptList.get(t).getTranscriptId(), t);
+            transcriptOrdinals[t] = first == null ? t : first;
         }
+        this.sealed = true;
+    }
+
+    public List<Region> findSkippedCds() {
+        // only depends on the annotation, samples read the events from the SkippedExonCatalogue
+        return getSkippedCds(generateCDSIntrons());
     }
 
-    public void generateCDSIntrons() {
+    private ArrayList<Intron> generateCDSIntrons() {
+        ArrayList<Intron> introns = new ArrayList<>();
         for (Transcript transcript : transcriptList) {
             for (int i = 0; i < transcript.getCdsList().size() - 1; i++) {
                 int intronStart = transcript.getCdsList().get(i).getStop() + 1;
@@ -55,33 +72,21 @@ public class Gene implements Interval {
                 introns.add(intron);
             }
         }
+        return introns;
     }
 
-    public void invertTranscripts() {
-        for (int i = 0; i < transcriptList.size(); i++) {
-            Transcript currTranscript = transcriptList.get(i);
-            currTranscript.reversExonList();
-            for (int j = 0; j < currTranscript.getExonList().size(); j++) {
-                currTranscript.getExonList().get(j).setPos(j);
-            }
-        }
-    }
-
-    public void invertTranscriptsCds() {
-        for (int i = 0; i < transcriptList.size(); i++) {
-            Transcript currTranscript = transcriptList.get(i);
-            currTranscript.reversCdsList();
-            for (int j = 0; j < currTranscript.getCdsList().size(); j++) {
-                currTranscript.getCdsList().get(j).setPos(j);
-            }
+    public void addTranscript(Transcript transcript) {
+        if (sealed) {
+            throw new IllegalStateException("Gene " + geneId + " is already sealed");
         }
+        transcriptList.add(transcript);
     }
 
-    public void addTranscript(Transcript transcript) {
-        transcriptList.add(transcript);
+    public int getTranscriptOrdinal(int transcript) {
+        return transcriptOrdinals[transcript];
     }
 
-    public ArrayList<Transcript> getTranscriptList() {
+    public List<Transcript> getTranscriptList() {
         return transcriptList;
     }
 
@@ -99,6 +104,10 @@ public class Gene implements Interval {
         return end;
     }
 
+    public SpliceGraph getSpliceGraph() {
+        return spliceGraph;
+    }
+
     public Transcript getLastTranscript() {
         if (!transcriptList.isEmpty()) {
             return transcriptList.get(transcriptList.size() - 1);
@@ -110,55 +119,15 @@ public class Gene implements Interval {
         return strand;
     }
 
-    public String getBioType() {
-        return bioType;
+    public String getGeneName() {
+        return geneName;
     }
 
-    public ArrayList<Exon> getSkippedExons() {
-        // store events here
-        ArrayList<Exon> skippedExons = new ArrayList<>();
-        boolean atLeastOneWT = false;
-        // for every intron check every transcript
-        for (Intron intron : introns) {
-            int intronStart = intron.getStart();
-            int intronEnd = intron.getEnd();
-
-            for (Transcript currTranscript : transcriptList) {
-                // get relevant HashMaps and check if currTranscript has cds starting or ending at i_s i_e
-                HashMap<Integer, Exon> exonEnds = currTranscript.getExonEnds();
-                HashMap<Integer, Exon> exonStarts = currTranscript.getExonStarts();
-
-                boolean hasExonInFront = exonEnds.containsKey(intronStart - 1);
-                boolean hasExonBehind = exonStarts.containsKey(intronEnd + 1);
-
-                if (hasExonInFront && hasExonBehind) {
-                    Exon frontExon = exonEnds.get(intronStart - 1);
-                    Exon behindExon = exonStarts.get(intronEnd + 1);
-
-                    // get offset / look if there are exons inbetween
-                    int offset = behindExon.getPos() - frontExon.getPos();
-
-                    if (offset != 1) {
-                        atLeastOneWT = true;
-                        ArrayList<Exon> exonList = currTranscript.getExonList();
-                        for (int i = frontExon.getPos(); i < behindExon.getPos(); i++) {
-                            if (i > frontExon.getPos() && i < behindExon.getPos()) {
-                                exonList.get(i).setTranscriptId(currTranscript.getTranscriptId());
-                                skippedExons.add(exonList.get(i));
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        if (atLeastOneWT) {
-            return skippedExons;
-        }
-        return null;
+    public String getBioType() {
+        return bioType;
     }
 
-
-    public ArrayList<Region> getSkippedCds() {
+    private ArrayList<Region> getSkippedCds(ArrayList<Intron> introns) {
         // store events here
         ArrayList<Region> skippedCds = new ArrayList<>();
         boolean atLeastOneWT = false;
@@ -167,10 +136,11 @@ public class Gene implements Interval {
             int intronStart = intron.getStart();
             int intronEnd = intron.getEnd();
 
-            for (Transcript currTranscript : transcriptList) {
+            for (int t = 0; t < transcriptList.size(); t++) {
+                Transcript currTranscript = transcriptList.get(t);
                 // get relevant HashMaps and check if currTranscript has cds starting or ending at i_s i_e
-                HashMap<Integer, Region> cdsEnds = currTranscript.getCdsEnds();
-                HashMap<Integer, Region> cdsStarts = currTranscript.getCdsStarts();
+                Map<Integer, Region> cdsEnds = currTranscript.getCdsEnds();
+                Map<Integer, Region> cdsStarts = currTranscript.getCdsStarts();
 
                 boolean hasExonInFront = cdsEnds.containsKey(intronStart - 1);
                 boolean hasExonBehind = cdsStarts.containsKey(intronEnd + 1);
@@ -184,11 +154,14 @@ public class Gene implements Interval {
 
                     if (offset != 1) {
                         atLeastOneWT = true;
-                        ArrayList<Region> cdsList = currTranscript.getCdsList();
+                        List<Region> cdsList = currTranscript.getCdsList();
                         for (int i = frontRegion.getPos(); i < behindRegion.getPos(); i++) {
                             if (i > frontRegion.getPos() && i < behindRegion.getPos()) {
-                                cdsList.get(i).setTranscriptId(currTranscript.getTranscriptId());
-                                skippedCds.add(cdsList.get(i));
+                                // events are copies, the cds of the transcript stay untouched
+                                Region cds = cdsList.get(i);
+                                Region event = new Region(cds.getStart(), cds.getStop(), cds.getPos());
+                                event.setTranscript(getTranscriptOrdinal(t));
+                                skippedCds.add(event);
                             }
                         }
                     }
@@ -200,79 +173,4 @@ public class Gene implements Interval {
         }
         return null;
     }
-    public void addReadPairGap(Region fwLastBlock, Region rwFirstBlock) {
-        ArrayList<Region> sorted = new ArrayList<>();
-        sorted.add(fwLastBlock);
-        sorted.add(rwFirstBlock);
-        sorted.sort(Comparator.comparingInt((Region::getStart)));
-        if (sorted.getFirst().getStop() < sorted.getLast().getStart()) {
-            Region gap = new Region(sorted.getFirst().getId(), sorted.getFirst().getStop() + 1, sorted.getLast().getStart() - 1);
-            // annotate gap
-            gap.setTranscriptId(sorted.getFirst().getTranscriptId());
-            gap.setType("GAP BETWEEN 2 READS");
-            this.gappedAliBlocksTree.add(gap);
-        }
-    }
-
-    public void addAlignedBlocks(TreeSet<Region> blocks, String type) {
-        if (blocks.size() > 1) {
-            int count = 1;
-            int gapStart = 0;
-            int gapEnd;
-            for (Region r : blocks) {
-                if (count % 2 != 0) {
-                    if (gapStart == 0) {
-                        gapStart = r.getStop() + 1;
-                    } else {
-                        gapEnd = r.getStart()-1;
-                        Region gap = new Region(r.getId(), gapStart, gapEnd);
-                        // annotate gap
-                        gap.setTranscriptId(r.getTranscriptId());
-                        gap.setType("GAP");
-                        gappedAliBlocksTree.add(gap);
-                        gapStart = r.getStop() + 1;
-
-                    }
-                    count++;
-                } else {
-                    gapEnd = r.getStart() - 1;
-                    Region gap = new Region(r.getId(), gapStart, gapEnd);
-                    // annotate gap
-                    gap.setTranscriptId(r.getTranscriptId());
-                    gap.setType("GAP");
-                    gappedAliBlocksTree.add(gap);
-                    gapStart = r.getStop() + 1;
-                    count = 1;
-                }
-                Region mappedRead = new Region(r.getId(), r.getStart(), r.getStop());
-
-                mappedRead.setTranscriptId(r.getTranscriptId());
-                mappedRead.setType(type);
-                this.mappedAliBlockSet.add(mappedRead);
-            }
-        }
-        else { // there is only one alignment block and no gaps
-            Region a = blocks.getLast();
-            Region mappedRead = new Region(a.getId(), a.getStart(), a.getStop());
-            mappedRead.setTranscriptId(a.getTranscriptId());
-            mappedRead.setType(type);
-            this.mappedAliBlockSet.add(mappedRead);
-        }
-    }
-
-    public IntervalTree<Region> getMappedAliBlocksTree() {
-        if (this.mappedAliBlocksTree == null) {
-            this.mappedAliBlocksTree = new IntervalTree<>();
-            for (Region r : mappedAliBlockSet) {
-                mappedAliBlocksTree.add(r);
-            }
-            this.mappedAliBlockSet.clear();
-        }
-        return this.mappedAliBlocksTree;
-    }
-
-    public IntervalTree<Region> getGappedAliBlocksTree() {
-        return gappedAliBlocksTree;
-    }
 }
-
@@ -0,0 +1,42 @@
+package org.src;
+
+public class GeneEvidence {
+    // per sample read counts of a gene, one slot per skipped exon event (in catalogue order),
+    // read pairs are counted when they arrive → memory depends on the events, not on the reads
+    // pairs with an alignment block inside the event
+    private final int[] inclusion;
+    // pairs with a gap spanning the event
+    private final int[] exclusion;
+    // pairs without such a block whose mate gap spans the event on its own transcript
+    private final int[] special;
+
+    public GeneEvidence(int events) {
+        this.inclusion = new int[events];
+        this.exclusion = new int[events];
+        this.special = new int[events];
+    }
+
+    public void count(int event, boolean included, boolean excluded, boolean specialOnly) {
+        if (included) {
+            inclusion[event]++;
+        }
+        if (excluded) {
+            exclusion[event]++;
+        }
+        if (specialOnly) {
+            special[event]++;
+        }
+    }
+
+    public int getInclusion(int event) {
+        return inclusion[event];
+    }
+
+    public int getExclusion(int event) {
+        return exclusion[event];
+    }
+
+    public int getSpecial(int event) {
+        return special[event];
+    }
+}
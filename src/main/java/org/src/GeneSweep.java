@@ -0,0 +1,115 @@
+package org.src;
+
+import java.util.Collection;
+
+public class GeneSweep {
+    // gene lookups for coordinate sorted input: per strand a cursor walks through the genes in start order
+    // as the reads move on and only genes that can still overlap a read pair are kept active.
+    // a pair whose mate lies further behind than the window (long inserts) falls back to the gene index
+    private static final int WINDOW = 1 << 16;
+
+    private final Genome genome;
+    private String chr;
+    private final Strand forward = new Strand();
+    private final Strand reverse = new Strand();
+
+    public GeneSweep(Genome genome) {
+        this.genome = genome;
+    }
+
+    public <C extends Collection<Gene>> C getGenesSpanning(String chr, boolean isNegative, int start, int stop, C result) {
+        // genes [a, b] with a <= start && b >= stop
+        Strand strand = strand(chr, isNegative);
+        if (strand.index == null) {
+            return result;
+        }
+        if (!strand.advance(start, stop)) {
+            return strand.index.getIntervalsSpanning(start, stop, result);
+        }
+        for (int i = 0; i < strand.activeCount; i++) {
+            int gene = strand.active[i];
+            if (strand.index.getStart(gene) <= start && strand.index.getStop(gene) >= stop) {
+                result.add(strand.index.get(gene));
+            }
+        }
+        return result;
+    }
+
+    public <C extends Collection<Gene>> C getGenesSpannedBy(String chr, boolean isNegative, int start, int stop, C result) {
+        // genes [a, b] with start <= a && b <= stop
+        Strand strand = strand(chr, isNegative);
+        if (strand.index == null) {
+            return result;
+        }
+        if (!strand.advance(start, stop)) {
+            return strand.index.getIntervalsSpannedBy(start, stop, result);
+        }
+        for (int i = 0; i < strand.activeCount; i++) {
+            int gene = strand.active[i];
+            if (start <= strand.index.getStart(gene) && strand.index.getStop(gene) <= stop) {
+                result.add(strand.index.get(gene));
+            }
+        }
+        return result;
+    }
+
+    private Strand strand(String chr, boolean isNegative) {
+        if (!chr.equals(this.chr)) {
+            // next chromosome → start over
+            this.chr = chr;
+            forward.reset(genome.getGeneIndex(chr, false));
+            reverse.reset(genome.getGeneIndex(chr, true));
+        }
+        return isNegative ? reverse : forward;
+    }
+
+    private static class Strand {
+        private IntervalIndex<Gene> index;
+        // next gene (in start order) that was not active yet
+        private int cursor;
+        // active genes as positions in index, in start order
+        private int[] active = new int[16];
+        private int activeCount;
+        // furthest pair end seen and the stop below which genes were dropped
+        private int highWater;
+        private int evictedBelow;
+
+        void reset(IntervalIndex<Gene> index) {
+            this.index = index;
+            this.cursor = 0;
+            this.activeCount = 0;
+            this.highWater = 0;
+            this.evictedBelow = 0;
+        }
+
+        boolean advance(int start, int stop) {
+            // false if genes the pair could overlap were already dropped
+            if (start < evictedBelow) {
+                return false;
+            }
+            highWater = Math.max(highWater, stop);
+            // every gene starting in front of the pair end becomes active
+            while (cursor < index.size() && index.getStart(cursor) <= stop) {
+                if (activeCount == active.length) {
+                    int[] grown = new int[active.length * 2];
+                    System.arraycopy(active, 0, grown, 0, activeCount);
+                    active = grown;
+                }
+                active[activeCount++] = cursor++;
+            }
+            // genes ending in front of the window can not overlap any later pair that is answered here
+            int threshold = Math.min(highWater - WINDOW, start);
+            if (threshold > evictedBelow) {
+                int kept = 0;
+                for (int i = 0; i < activeCount; i++) {
+                    if (index.getStop(active[i]) >= threshold) {
+                        active[kept++] = active[i];
+                    }
+                }
+                activeCount = kept;
+                evictedBelow = threshold;
+            }
+            return true;
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package org.src;
 
-import augmentedTree.IntervalTree;
-import org.src.utils.FileUtils;
+import org.src.utils.GtfTokenizer;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Genome {
     private final ArrayList<Gene> genes = new ArrayList<>();
     private final HashSet<String> VALID_CHROMOSOMES = new HashSet<>();
+    // below this size splitting the gtf costs more than it saves
+    private static final long MIN_CHUNK_BYTES = 8L << 20;
 
-    private HashMap<String, HashMap<Boolean, IntervalTree<Gene>>> intervalTreeMap = new HashMap<>();
+    private HashMap<String, HashMap<Boolean, IntervalIndex<Gene>>> geneIndexMap = new HashMap<>();
+    private SkippedExonCatalogue skippedExonCatalogue;
+    // the catalogue file next to the gtf matches skippedExonCatalogue
+    private boolean catalogueWritten = false;
+    private GtfFingerprint fingerprint;
     public Genome() {
         initValidChrs();
     }
@@ -88,103 +97,214 @@ public class Genome {
     }
 
     public void readGTF(String pathToGtf) throws IOException {
+        this.fingerprint = new GtfFingerprint(new File(pathToGtf));
+        // parsing the gtf text is by far the slowest part of the startup → only done once per gtf
+        if (!AnnotationCache.load(this, fingerprint)) {
+            parseGTF(pathToGtf);
+            try {
+                AnnotationCache.write(this, fingerprint);
+            } catch (IOException e) {
+                System.err.println("Could not write annotation cache next to " + pathToGtf + ": " + e.getMessage());
+            }
+        }
+        buildGeneIndices();
+
+        // afterwards the genome is read only
+        for (int i = 0; i < genes.size(); i++) {
+            genes.get(i).seal(i);
+        }
+
+        // skipped exon events only depend on the annotation → use the catalogue written by -index if it is
+        // up to date, otherwise derive them once for all samples
+        this.skippedExonCatalogue = SkippedExonCatalogue.load(fingerprint, genes.size());
+        this.catalogueWritten = this.skippedExonCatalogue != null;
+        if (this.skippedExonCatalogue == null) {
+            this.skippedExonCatalogue = SkippedExonCatalogue.build(genes);
+        }
+    }
+
+    public synchronized void writeSkippedExonCatalogue() throws IOException {
+        // output referring to events by id (columnar psi) is only readable with the catalogue next to the gtf
+        if (!catalogueWritten) {
+            skippedExonCatalogue.write(SkippedExonCatalogue.catalogueFile(fingerprint.getGtf()), fingerprint);
+            catalogueWritten = true;
+        }
+    }
+
+    private void parseGTF(String pathToGtf) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(pathToGtf), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // gene records are independent → split the file in front of "gene" lines and parse the chunks in parallel
+            int chunks = (int) Math.min(ForkJoinPool.getCommonPoolParallelism() * 4L, size / MIN_CHUNK_BYTES);
+            long[] bounds = chunkBounds(channel, size, Math.max(1, chunks));
+            if (bounds.length == 2) {
+                genes.addAll(parseChunk(channel, 0, size));
+                return;
+            }
+
+            ArrayList<Callable<ArrayList<Gene>>> tasks = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(() -> parseChunk(channel, from, to));
+            }
+            // chunks are merged in file order → same gene order as a sequential parse
+            for (Future<ArrayList<Gene>> chunk : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                genes.addAll(await(chunk));
+            }
+        }
+    }
+
+    private ArrayList<Gene> parseChunk(FileChannel channel, long from, long to) throws IOException {
+        ArrayList<Gene> chunkGenes = new ArrayList<>();
         // sanity check vars
         Gene lastGene = null;
         int exonCounter = 0;
         int cdsCounter = 0;
 
-        BufferedReader buff = new BufferedReader(new FileReader(pathToGtf));
-        String line;
+        GtfTokenizer gtf = new GtfTokenizer(channel, from, to);
 
-        while ((line = buff.readLine()) != null) {
-            // skip comments
-            if (line.charAt(0) == '#') {
+        while (gtf.next()) {
+            // skip chromosomes that are not in reference fasta
+            if (!VALID_CHROMOSOMES.contains(gtf.seqname())) {
                 continue;
             }
 
+            switch (gtf.feature()) {
+                // check if we hit a new gene
+                case GtfTokenizer.GENE -> {
+                    lastGene = new Gene(
+                            gtf.geneId(),
+                            gtf.start(),
+                            gtf.end(),
+                            gtf.geneName(),
+                            gtf.seqname(),
+                            gtf.strand(),
+                            gtf.geneBiotype()
+                    );
+                    chunkGenes.add(lastGene);
+                }
+                // did we hit a new transcript
+                case GtfTokenizer.TRANSCRIPT -> {
+                    // add new transcript to current gene
+                    Transcript transcript = new Transcript(gtf.transcriptId(), gtf.strand(), gtf.start(), gtf.end());
+                    lastGene.addTranscript(transcript);
 
-            // extract main components (line split by \t)
-            String[] mainComponents = line.split("\t");
-            // skip chromosomes that are not in reference fasta
-            if (!VALID_CHROMOSOMES.contains(mainComponents[0])) {
-                continue;
-            }
-            // split attributes again at ";"
-            String[] attributeEntries = mainComponents[mainComponents.length - 1].split(";");
-
-            // get newGeneId of current line
-            String newGeneId = FileUtils.parseGTFAttributes(attributeEntries, "gene_id");
-
-            // check if we hit a new gene
-            if (mainComponents[2].equals("gene")) {
-                // update gene and continue with next gtf line
-                String bioType = FileUtils.parseGTFAttributes(attributeEntries, "gene_biotype");
-                int geneStart = Integer.parseInt(mainComponents[3]);
-                int geneEnd = Integer.parseInt(mainComponents[4]);
-                String geneName = FileUtils.parseGTFAttributes(attributeEntries, "gene_name");
-                String chr = mainComponents[0];
-                char strand = mainComponents[6].charAt(0);
-                lastGene = new Gene(newGeneId, geneStart, geneEnd, geneName, chr, strand, bioType);
-                genes.add(lastGene);
-
-                // Here IntervalTree
-                // if frstrand == null → just create one tree
-                boolean isNegative = strand == '-';
-                if (!intervalTreeMap.containsKey(chr)) {
-                    intervalTreeMap.put(chr, new HashMap<>());
+                    // reset counter
+                    exonCounter = 0;
+                    cdsCounter = 0;
                 }
-                if (!intervalTreeMap.get(chr).containsKey(isNegative)) {
-                    intervalTreeMap.get(chr).put(isNegative, new IntervalTree<>());
+                // add exon to last transcript
+                case GtfTokenizer.EXON -> {
+                    lastGene.getLastTranscript().addExon(
+                            gtf.start(),
+                            gtf.end(),
+                            exonCounter
+                    );
+                    exonCounter++;
+                }
+                case GtfTokenizer.CDS -> {
+                    lastGene.getLastTranscript().addCds(
+                            gtf.start(),
+                            gtf.end(),
+                            cdsCounter
+                    );
+                    cdsCounter++;
+                }
+                default -> {
                 }
-                intervalTreeMap.get(chr).get(isNegative).add(lastGene);
-                continue;
             }
+        }
+        return chunkGenes;
+    }
 
+    private static long[] chunkBounds(FileChannel channel, long size, int chunks) throws IOException {
+        // evenly spaced split points, each moved forward to the start of the next "gene" line
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for (int i = 1; i < chunks; i++) {
+            long bound = GtfTokenizer.nextGeneLine(channel, size * i / chunks, size);
+            if (bound > bounds.getLast() && bound < size) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
 
-            // did we hit a new transcript
-            if (mainComponents[2].equals("transcript")) {
-
-                // only add cds to current transcript
-                String transcriptId = FileUtils.parseGTFAttributes(attributeEntries, "transcript_id");
-
-                // add new transcript to current gene
-                int transcriptStart = Integer.parseInt(mainComponents[3]);
-                int transcriptStop = Integer.parseInt(mainComponents[4]);
-                Transcript transcript = new Transcript(transcriptId, mainComponents[6].charAt(0), transcriptStart, transcriptStop);
-                lastGene.addTranscript(transcript);
+    private void buildGeneIndices() throws IOException {
+        // one index per chromosome and strand, every index is built by its own task
+        LinkedHashMap<String, HashMap<Boolean, ArrayList<Gene>>> grouped = new LinkedHashMap<>();
+        for (Gene gene : genes) {
+            grouped.computeIfAbsent(gene.getChr(), chr -> new HashMap<>())
+                    .computeIfAbsent(gene.getStrand() == '-', isNegative -> new ArrayList<>())
+                    .add(gene);
+        }
 
-                // reset counter
-                exonCounter = 0;
-                cdsCounter= 0;
+        ArrayList<Callable<IntervalIndex<Gene>>> tasks = new ArrayList<>();
+        for (HashMap<Boolean, ArrayList<Gene>> strands : grouped.values()) {
+            for (ArrayList<Gene> strandGenes : strands.values()) {
+                tasks.add(() -> new IntervalIndex<>(strandGenes));
             }
-            // add exon to last transcript
-            else if (mainComponents[2].equals("exon")) {
-                int start = Integer.parseInt(mainComponents[3]);
-                int end = Integer.parseInt(mainComponents[4]);
-                lastGene.getLastTranscript().addExon(
-                        start,
-                        end,
-                        exonCounter
-                );
-                exonCounter++;
+        }
+        List<Future<IntervalIndex<Gene>>> indices = ForkJoinPool.commonPool().invokeAll(tasks);
+
+        // if frstrand == null → just create one index
+        int t = 0;
+        for (Map.Entry<String, HashMap<Boolean, ArrayList<Gene>>> chr : grouped.entrySet()) {
+            HashMap<Boolean, IntervalIndex<Gene>> strandIndices = new HashMap<>();
+            for (Boolean isNegative : chr.getValue().keySet()) {
+                strandIndices.put(isNegative, await(indices.get(t++)));
             }
-            else if (mainComponents[2].equals("CDS")) {
-                int start = Integer.parseInt(mainComponents[3]);
-                int end = Integer.parseInt(mainComponents[4]);
-                lastGene.getLastTranscript().addCds(
-                        start,
-                        end,
-                        cdsCounter
-                );
-                cdsCounter++;
+            geneIndexMap.put(chr.getKey(), strandIndices);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the annotation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw new IOException("Failed to read the annotation", e.getCause());
+        }
+    }
+
+    public Gene addGene(String geneId, int start, int end, String geneName, String chr, char strand, String bioType) {
+        Gene gene = new Gene(geneId, start, end, geneName, chr, strand, bioType);
+        genes.add(gene);
+        return gene;
+    }
+
+    void clear() {
+        genes.clear();
+        geneIndexMap.clear();
+    }
+
+    public HashMap<String, HashMap<Boolean, IntervalIndex<Gene>>> getGeneIndexMap() {
+        return geneIndexMap;
+    }
+
+    public IntervalIndex<Gene> getGeneIndex(String chr, boolean isNegative) {
+        HashMap<Boolean, IntervalIndex<Gene>> strandIndices = geneIndexMap.get(chr);
+        if (strandIndices == null) {
+            return null;
         }
+        return strandIndices.get(isNegative);
     }
 
-    public HashMap<String, HashMap<Boolean, IntervalTree<Gene>>> getIntervalTreeMap() {
-        return intervalTreeMap;
+
+    public GtfFingerprint getFingerprint() {
+        return fingerprint;
     }
 
+    public SkippedExonCatalogue getSkippedExonCatalogue() {
+        return skippedExonCatalogue;
+    }
 
     public ArrayList<Gene> getGenes() {
         return genes;
@@ -0,0 +1,56 @@
+package org.src;
+
+import org.src.utils.FileUtils;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class GtfFingerprint {
+    // identifies the gtf a binary file was derived from: length and CRC32C checksum of its content.
+    // the modification time is stored for reference only, cp -p / rsync -t / archives keep it for edited files
+    public static final int BYTES = 8 + 8 + 8;
+
+    private final File gtf;
+    private final long length;
+    private final long lastModified;
+    private long checksum;
+    private boolean hasChecksum = false;
+
+    public GtfFingerprint(File gtf) {
+        this.gtf = gtf;
+        this.length = gtf.length();
+        this.lastModified = gtf.lastModified();
+    }
+
+    public File getGtf() {
+        return gtf;
+    }
+
+    public long getChecksum() throws IOException {
+        // computed at most once per run, shared by every cache that is checked against this gtf
+        if (!hasChecksum) {
+            checksum = FileUtils.checksum(gtf);
+            hasChecksum = true;
+        }
+        return checksum;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeLong(getChecksum());
+    }
+
+    public void write(ByteBuffer out) throws IOException {
+        out.putLong(length);
+        out.putLong(lastModified);
+        out.putLong(getChecksum());
+    }
+
+    public boolean matches(ByteBuffer in, int at) throws IOException {
+        // checksumming the gtf is cheap next to parsing it and computed once for all caches of a run
+        return in.getLong(at) == length && in.getLong(at + 16) == getChecksum();
+    }
+}
@@ -0,0 +1,145 @@
+package org.src;
+
+import augmentedTree.Interval;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+
+public class IntervalIndex<T extends Interval> {
+    // read only interval index on flat arrays: intervals sorted by start, the array itself is an implicit
+    // binary tree (node i on level k has children i ± 2^(k-1)) and maxStops[i] is the largest stop in the
+    // subtree of i → no node objects, queries only touch a few neighbouring array slots
+    private final Object[] items;
+    private final int[] starts;
+    private final int[] stops;
+    private final int[] maxStops;
+    private final int size;
+    private final int maxLevel;
+
+    public IntervalIndex(Collection<? extends T> intervals) {
+        ArrayList<T> sorted = new ArrayList<>(intervals);
+        sorted.sort(Comparator.comparingInt(Interval::getStart).thenComparingInt(Interval::getStop));
+        this.size = sorted.size();
+        this.items = sorted.toArray();
+        this.starts = new int[size];
+        this.stops = new int[size];
+        this.maxStops = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = sorted.get(i).getStart();
+            stops[i] = sorted.get(i).getStop();
+        }
+        this.maxLevel = buildMaxStops();
+    }
+
+    private int buildMaxStops() {
+        if (size == 0) {
+            return 0;
+        }
+        // leaves (even slots)
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < size; i += 2) {
+            lastIndex = i;
+            last = maxStops[i] = stops[i];
+        }
+        int k = 1;
+        for (; 1 << k <= size; k++) {
+            int x = 1 << (k - 1);
+            int first = (x << 1) - 1;
+            int step = x << 2;
+            for (int i = first; i < size; i += step) {
+                int left = maxStops[i - x];
+                int right = i + x < size ? maxStops[i + x] : last;
+                maxStops[i] = Math.max(stops[i], Math.max(left, right));
+            }
+            // max of the rightmost (possibly incomplete) subtree on this level
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < size && maxStops[lastIndex] > last) {
+                last = maxStops[lastIndex];
+            }
+        }
+        return k - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // intervals in start order, used by GeneSweep
+    public T get(int i) {
+        return item(i);
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getStop(int i) {
+        return stops[i];
+    }
+
+    public <C extends Collection<T>> C getIntervalsSpanning(int start, int stop, C result) {
+        // intervals [a, b] with a <= start && b >= stop
+        if (size > 0) {
+            spanning((1 << maxLevel) - 1, maxLevel, start, stop, result);
+        }
+        return result;
+    }
+
+    public <C extends Collection<T>> C getIntervalsSpannedBy(int start, int stop, C result) {
+        // intervals [a, b] with start <= a && b <= stop → their starts form one range of the array
+        for (int i = firstStartAtOrAfter(start); i < size && starts[i] <= stop; i++) {
+            if (stops[i] <= stop) {
+                result.add(item(i));
+            }
+        }
+        return result;
+    }
+
+    private void spanning(int x, int k, int start, int stop, Collection<T> result) {
+        if (k <= 3) {
+            // small subtree → scan it
+            int from = x >> k << k;
+            int to = Math.min(size, from + (1 << (k + 1)) - 1);
+            for (int i = from; i < to && starts[i] <= start; i++) {
+                if (stops[i] >= stop) {
+                    result.add(item(i));
+                }
+            }
+            return;
+        }
+        int half = 1 << (k - 1);
+        int left = x - half;
+        // left subtree only if something in it reaches stop
+        if (left >= size || maxStops[left] >= stop) {
+            spanning(left, k - 1, start, stop, result);
+        }
+        // node and right subtree only if they start early enough
+        if (x < size && starts[x] <= start) {
+            if (stops[x] >= stop) {
+                result.add(item(x));
+            }
+            spanning(x + half, k - 1, start, stop, result);
+        }
+    }
+
+    private int firstStartAtOrAfter(int pos) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T item(int i) {
+        return (T) items[i];
+    }
+}
@@ -1,29 +1,133 @@
 package org.src;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.MutuallyExclusiveGroup;
 import net.sourceforge.argparse4j.inf.Namespace;
+import org.src.utils.FileUtils;
+
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Main {
     public static void main(String[] args) throws IOException {
-        ArgumentParser parser = ArgumentParsers.newFor("PsiCounter").build().defaultHelp(true).description("Usage:\n\t-gtf <path-to-gtf>\n\t-o <path-to-out.psi>\n\t-bam <path-to-bam>");
+        ArgumentParser parser = ArgumentParsers.newFor("PsiCounter").build().defaultHelp(true).description("Usage:\n\t-gtf <path-to-gtf>\n\t-index (only write the skipped exon catalogue of the gtf)\n\t-o <path-to-out.psi | out-dir>\n\t-bam <path-to-bam> [<path-to-bam> ...] | -samples <sample-sheet>\n\t-threads <num-threads>\n\t-jobs <num-samples-in-parallel>\n\t-pairmem <mb-per-sample>\n\t-inflaters <num-threads>\n\t-format <tsv | bgzf | columnar>\n\t-decode <path-to-columnar.psic> (convert to tsv, -o)");
         try {
             parser.addArgument("-gtf").required(true).help("Path to Gene Transfer Format File.");
-            parser.addArgument("-bam").required(true).help("Path to Bam File.");
-            parser.addArgument("-o").required(true).help("Specify Output File Name.");
+            parser.addArgument("-index").action(Arguments.storeTrue()).help("Precompute the skipped exon events of the gtf and write them next to it (<gtf>" + SkippedExonCatalogue.SUFFIX + ").");
+            MutuallyExclusiveGroup input = parser.addMutuallyExclusiveGroup();
+            input.addArgument("-bam").nargs("+").help("Path to Bam File(s). With more than one Bam File, -o is an output directory.");
+            input.addArgument("-samples").help("Tab separated sample sheet (<sample-name>\\t<path-to-bam>), -o is an output directory.");
+            parser.addArgument("-o").help("Specify Output File Name.");
+            parser.addArgument("-threads").type(Integer.class).setDefault(1).help("Number of chromosomes processed in parallel (requires an indexed BAM).");
+            parser.addArgument("-jobs").type(Integer.class).setDefault(1).help("Number of samples processed in parallel.");
+            parser.addArgument("-pairmem").type(Integer.class).setDefault((int) (BamFeatures.DEFAULT_PAIR_MEMORY >> 20)).help("Memory in MB per sample for reads waiting on their mate, the rest is spilled to temporary files.");
+
+            parser.addArgument("-inflaters").type(Integer.class).help("Threads per sample inflating BAM blocks when the BAM is read as a whole (without -threads), default: cores / jobs.");
+
+            parser.addArgument("-format").type(Arguments.caseInsensitiveEnumType(PsiWriter.Format.class)).setDefault(PsiWriter.Format.TSV).help("Output format: tsv, bgzf (block gzipped tsv + <out>.idx row index) or columnar (binary int columns keyed by the skipped exon catalogue of the gtf).");
+
+            parser.addArgument("-decode").help("Convert a columnar psi file to tsv (-o), -gtf has to be the gtf it was written with.");
 
             Namespace ns = parser.parseArgs(args);
             String gtfPath = ns.getString("gtf");
             String out = ns.getString("o");
-            String bamPath = ns.getString("bam");
+            List<String> bamPaths = ns.getList("bam");
+            String sampleSheet = ns.getString("samples");
+            int threads = ns.getInt("threads");
+            int jobs = ns.getInt("jobs");
+            if (ns.getInt("pairmem") < 1) {
+                throw new ArgumentParserException("-pairmem needs at least 1 MB", parser);
+            }
+            long pairMemory = (long) ns.getInt("pairmem") << 20;
+            int inflateThreads = ns.getInt("inflaters") != null ? ns.getInt("inflaters") : BamFeatures.defaultInflateThreads(jobs);
+            PsiWriter.Format format = ns.get("format");
 
-            BamFeatures bam = new BamFeatures(bamPath, gtfPath);
-            bam.processBAM();
-            bam.getPctSplicedCounts(out);
+            if (ns.getBoolean("index")) {
+                writeIndex(gtfPath);
+                return;
+            }
+            if (ns.getString("decode") != null) {
+                if (out == null) {
+                    throw new ArgumentParserException("-decode needs -o", parser);
+                }
+                Genome genome = new Genome();
+                genome.readGTF(gtfPath);
+                PsiWriter.decodeColumnar(ns.getString("decode"), genome, out);
+                return;
+            }
+            if ((bamPaths == null && sampleSheet == null) || out == null) {
+                throw new ArgumentParserException("-o and one of -bam / -samples are required", parser);
+            }
+
+            if (sampleSheet == null && bamPaths.size() == 1) {
+                BamFeatures bam = new BamFeatures(bamPaths.getFirst(), gtfPath);
+                bam.setPairMemory(pairMemory);
+                bam.setInflateThreads(inflateThreads);
+                bam.setOutputFormat(format);
+                bam.processBAM(threads, out);
+                System.err.println(bamPaths.getFirst() + ": " + bam.getReadFilter());
+                return;
+            }
+
+            LinkedHashMap<String, String> samples = sampleSheet != null
+                    ? FileUtils.readSampleSheet(new File(sampleSheet))
+                    : FileUtils.samplesFromBamPaths(bamPaths);
+            runBatch(gtfPath, samples, out, threads, jobs, pairMemory, inflateThreads, format);
         } catch (ArgumentParserException e) {
             parser.printHelp();
         }
     }
-}
\ No newline at end of file
+
+    public static void writeIndex(String gtfPath) throws IOException {
+        Genome genome = new Genome();
+        genome.readGTF(gtfPath);
+        // reading the gtf already leaves the annotation cache next to it and loads or builds the catalogue
+        genome.getSkippedExonCatalogue().write(SkippedExonCatalogue.catalogueFile(new File(gtfPath)), genome.getFingerprint());
+    }
+
+    public static void runBatch(String gtfPath, LinkedHashMap<String, String> samples, String outDir, int threads, int jobs, long pairMemory, int inflateThreads, PsiWriter.Format format) throws IOException {
+        // annotation is parsed once and shared read only by all samples
+        Genome genome = new Genome();
+        genome.readGTF(gtfPath);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs));
+        List<Future<?>> results = new ArrayList<>();
+        for (Map.Entry<String, String> sample : samples.entrySet()) {
+            String outPath = new File(outDir, sample.getKey() + format.getExtension()).getPath();
+            results.add(pool.submit(() -> {
+                BamFeatures bam = new BamFeatures(sample.getValue(), genome);
+                bam.setPairMemory(pairMemory);
+                bam.setInflateThreads(inflateThreads);
+                bam.setOutputFormat(format);
+                bam.processBAM(threads, outPath);
+                System.err.println(sample.getKey() + ": " + bam.getReadFilter());
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing samples", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to process sample", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.src;
+
+import java.io.*;
+import java.util.*;
+
+public class MatePairer implements Closeable {
+    // pairs mates within a fixed memory budget:
+    // waiting reads are kept as compact AlignedReads, reads whose mate can no longer show up are dropped
+    // and if the budget is exceeded the reads that are needed last are spilled into sorted run files
+    public interface PairHandler {
+        void pair(AlignedRead stored, AlignedRead current) throws IOException;
+    }
+
+    private static final Comparator<AlignedRead> BY_MATE_START = Comparator.comparingInt(AlignedRead::getMateAlignmentStart)
+            .thenComparing(AlignedRead::compareNames);
+    private static final Comparator<AlignedRead> BY_NAME = AlignedRead::compareNames;
+    // runs on disk at once, beyond that they are merged into one → bounded open files during the final merge
+    private static final int MAX_RUNS = 64;
+
+    private final boolean coordinateSorted;
+    private final long memoryBudget;
+    private final PairHandler handler;
+
+    private final PendingReads pending = new PendingReads();
+    // coordinate sorted input only: waiting reads by the position their mate starts at,
+    // entries that were paired or spilled in the meantime are skipped when polled
+    private final PriorityQueue<AlignedRead> byMateStart = new PriorityQueue<>(BY_MATE_START);
+    private final ArrayList<SpillRun> runs = new ArrayList<>();
+    private long pendingBytes = 0;
+
+    // released reads are reused for the next records, a read still referenced by byMateStart
+    // is only released once it leaves the queue
+    private static final int MAX_POOLED = 1 << 12;
+    private final ArrayDeque<AlignedRead> pool = new ArrayDeque<>();
+
+    public MatePairer(boolean coordinateSorted, long memoryBudget, PairHandler handler) {
+        this.coordinateSorted = coordinateSorted;
+        this.memoryBudget = memoryBudget;
+        this.handler = handler;
+    }
+
+    public AlignedRead obtain() {
+        AlignedRead read = pool.poll();
+        return read != null ? read : new AlignedRead();
+    }
+
+    private void release(AlignedRead read) {
+        if (pool.size() < MAX_POOLED) {
+            pool.push(read);
+        }
+    }
+
+    public void add(AlignedRead read) throws IOException {
+        // takes ownership of read, the handler must not keep the reads it is given
+        if (coordinateSorted) {
+            int position = read.getAlignmentStart();
+            reload(position);
+            evict(position);
+        }
+
+        AlignedRead mate = pending.remove(read);
+        if (mate != null) {
+            pendingBytes -= mate.estimatedBytes();
+            handler.pair(mate, read);
+            release(read);
+            if (!coordinateSorted) {
+                release(mate);
+            }
+            return;
+        }
+
+        // mate starts before this read but was never seen → filtered, it will not show up anymore
+        if (coordinateSorted && read.getMateAlignmentStart() < read.getAlignmentStart()) {
+            release(read);
+            return;
+        }
+
+        pending.put(read);
+        pendingBytes += read.estimatedBytes();
+        if (coordinateSorted) {
+            byMateStart.add(read);
+        }
+        if (pendingBytes > memoryBudget) {
+            spill(read.getAlignmentStart());
+        }
+    }
+
+    public void finish() throws IOException {
+        // end of input or of a chromosome in sorted input
+        if (!coordinateSorted && !runs.isEmpty()) {
+            mergeRuns();
+        }
+        closeRuns();
+        // in sorted input every waiting read is also in byMateStart
+        for (AlignedRead read : coordinateSorted ? byMateStart : pending.values()) {
+            release(read);
+        }
+        pending.clear();
+        byMateStart.clear();
+        pendingBytes = 0;
+    }
+
+    private void evict(int position) {
+        // sorted input: everything starting before position was already seen
+        while (!byMateStart.isEmpty() && byMateStart.peek().getMateAlignmentStart() < position) {
+            AlignedRead read = byMateStart.poll();
+            if (pending.get(read) == read) {
+                pending.remove(read);
+                pendingBytes -= read.estimatedBytes();
+            }
+            release(read);
+        }
+    }
+
+    private void reload(int position) throws IOException {
+        // sorted input: bring spilled reads back once their mate is about to show up
+        Iterator<SpillRun> it = runs.iterator();
+        while (it.hasNext()) {
+            SpillRun run = it.next();
+            run.open();
+            while (run.peek() != null && run.peek().getMateAlignmentStart() <= position) {
+                AlignedRead read = run.next(obtain());
+                pending.put(read);
+                pendingBytes += read.estimatedBytes();
+                byMateStart.add(read);
+            }
+            if (run.peek() == null) {
+                run.close();
+                it.remove();
+            }
+        }
+    }
+
+    private void spill(int position) throws IOException {
+        ArrayList<AlignedRead> spilled;
+        if (coordinateSorted) {
+            // keep what is needed soon, spill the half whose mates are furthest ahead
+            ArrayList<AlignedRead> later = new ArrayList<>();
+            for (AlignedRead read : pending.values()) {
+                if (read.getMateAlignmentStart() > position) {
+                    later.add(read);
+                }
+            }
+            later.sort(BY_MATE_START);
+            spilled = new ArrayList<>(later.subList(later.size() / 2, later.size()));
+        } else {
+            // no order to rely on → spill everything, runs are merged by name at the end
+            spilled = new ArrayList<>(pending.values());
+            spilled.sort(BY_NAME);
+        }
+        if (spilled.isEmpty()) {
+            return;
+        }
+        for (AlignedRead read : spilled) {
+            pending.remove(read);
+            pendingBytes -= read.estimatedBytes();
+        }
+        addRun(SpillRun.write(spilled));
+        if (coordinateSorted) {
+            // spilled and already paired reads leave the queue → their objects are free, reload brings back copies
+            ArrayList<AlignedRead> queued = new ArrayList<>(byMateStart);
+            byMateStart.clear();
+            for (AlignedRead read : queued) {
+                if (pending.get(read) == read) {
+                    byMateStart.add(read);
+                } else {
+                    release(read);
+                }
+            }
+        } else {
+            spilled.forEach(this::release);
+        }
+    }
+
+    private void mergeRuns() throws IOException {
+        // reads still in memory form one more run, then mates are adjacent in name order
+        if (!pending.isEmpty()) {
+            ArrayList<AlignedRead> rest = new ArrayList<>(pending.values());
+            rest.sort(BY_NAME);
+            addRun(SpillRun.write(rest));
+            pending.clear();
+            rest.forEach(this::release);
+        }
+        PriorityQueue<SpillRun> heads = openHeads(runs, BY_NAME);
+        AlignedRead last = null;
+        while (!heads.isEmpty()) {
+            SpillRun run = heads.poll();
+            AlignedRead read = run.next(obtain());
+            if (run.peek() != null) {
+                heads.add(run);
+            }
+            if (last != null && last.hasSameName(read)) {
+                handler.pair(last, read);
+                release(last);
+                release(read);
+                last = null;
+            } else {
+                if (last != null) {
+                    release(last);
+                }
+                last = read;
+            }
+        }
+        if (last != null) {
+            release(last);
+        }
+    }
+
+    private void addRun(SpillRun run) throws IOException {
+        runs.add(run);
+        if (runs.size() < MAX_RUNS) {
+            return;
+        }
+        // merged in the order the runs are read later: by name, or by mate start in sorted input
+        PriorityQueue<SpillRun> heads = openHeads(runs, coordinateSorted ? BY_MATE_START : BY_NAME);
+        SpillRun merged = SpillRun.write(out -> {
+            int count = 0;
+            while (!heads.isEmpty()) {
+                SpillRun head = heads.poll();
+                AlignedRead read = head.next(obtain());
+                if (head.peek() != null) {
+                    heads.add(head);
+                }
+                read.write(out);
+                release(read);
+                count++;
+            }
+            return count;
+        });
+        closeRuns();
+        runs.add(merged);
+    }
+
+    private static PriorityQueue<SpillRun> openHeads(List<SpillRun> runs, Comparator<AlignedRead> order) throws IOException {
+        PriorityQueue<SpillRun> heads = new PriorityQueue<>((a, b) -> order.compare(a.peek(), b.peek()));
+        for (SpillRun run : runs) {
+            run.open();
+            if (run.peek() != null) {
+                heads.add(run);
+            }
+        }
+        return heads;
+    }
+
+    private void closeRuns() throws IOException {
+        IOException failure = null;
+        for (SpillRun run : runs) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        runs.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // a failed stage leaves no run files behind
+        closeRuns();
+    }
+
+    private interface RunWriter {
+        // returns the number of reads written
+        int write(DataOutputStream out) throws IOException;
+    }
+
+    private static class SpillRun implements Closeable {
+        // reads of one run file, the file is only opened when the run is read
+        private final File file;
+        private final int count;
+        private DataInputStream in;
+        private int remaining;
+        private AlignedRead head = new AlignedRead();
+
+        private SpillRun(File file, int count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        static SpillRun write(List<AlignedRead> reads) throws IOException {
+            return write(out -> {
+                for (AlignedRead read : reads) {
+                    read.write(out);
+                }
+                return reads.size();
+            });
+        }
+
+        static SpillRun write(RunWriter writer) throws IOException {
+            File file = File.createTempFile("psi-mates", ".run");
+            boolean written = false;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                int count = writer.write(out);
+                out.flush();
+                written = true;
+                return new SpillRun(file, count);
+            } finally {
+                if (!written) {
+                    file.delete();
+                }
+            }
+        }
+
+        void open() throws IOException {
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+                remaining = count;
+                advance();
+            }
+        }
+
+        AlignedRead peek() {
+            return head;
+        }
+
+        AlignedRead next(AlignedRead target) throws IOException {
+            // hands out head and reads the next record into target
+            AlignedRead read = head;
+            head = target;
+            advance();
+            return read;
+        }
+
+        private void advance() throws IOException {
+            if (remaining-- > 0) {
+                head.read(in);
+            } else {
+                head = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
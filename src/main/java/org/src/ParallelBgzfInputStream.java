@@ -0,0 +1,274 @@
+package org.src;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class ParallelBgzfInputStream extends InputStream {
+    // uncompressed content of a BGZF file (bam): the calling thread reads chunks of whole compressed blocks
+    // from the channel, a pool inflates them and up to `ahead` chunks, at most AHEAD_BYTES compressed, are in flight.
+    // chunks are handed back strictly in file order → callers see the same bytes as with a sequential reader
+    private static final int CHUNK_BYTES = 1 << 20;
+    // bounds the memory per stream independent of the thread count, inflated that is ~3-4x as much
+    private static final long AHEAD_BYTES = 16L << 20;
+    // gzip header up to XLEN, every BGZF block is at most 64 KB
+    private static final int BLOCK_HEADER = 12;
+    private static final int MAX_BLOCK = 1 << 16;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final ExecutorService pool;
+    private final int ahead;
+    private final ArrayDeque<Future<byte[]>> inflating = new ArrayDeque<>();
+    // compressed bytes of the chunks in inflating, in the same order
+    private final ArrayDeque<Integer> inflatingBytes = new ArrayDeque<>();
+    private long aheadBytes = 0;
+    // idle inflaters of the pool, native memory → ended on close instead of waiting for the gc
+    private final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+    private boolean closed = false;
+    // file offset of the next block that was not submitted yet
+    private long position = 0;
+
+    private byte[] current = EMPTY;
+    private int offset = 0;
+
+    public ParallelBgzfInputStream(File file, int threads) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "psi-inflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ahead = 4 * Math.max(1, threads);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (offset == current.length && !advance()) {
+            return -1;
+        }
+        return current[offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (offset == current.length && !advance()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - offset);
+        System.arraycopy(current, offset, b, off, n);
+        offset += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // moves through the inflated chunks without copying
+        long skipped = 0;
+        while (skipped < n) {
+            if (offset == current.length && !advance()) {
+                break;
+            }
+            int step = (int) Math.min(n - skipped, current.length - offset);
+            offset += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return current.length - offset;
+    }
+
+    private boolean advance() throws IOException {
+        // next non empty chunk, false at the end of the file
+        while (true) {
+            while (position < size && (inflating.isEmpty() || inflating.size() < ahead && aheadBytes + CHUNK_BYTES <= AHEAD_BYTES)) {
+                submitChunk();
+            }
+            Future<byte[]> next = inflating.poll();
+            if (next == null) {
+                return false;
+            }
+            aheadBytes -= inflatingBytes.poll();
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating " + file);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException("Failed to inflate " + file, e.getCause());
+            }
+            offset = 0;
+            if (current.length > 0) {
+                return true;
+            }
+        }
+    }
+
+    private void submitChunk() throws IOException {
+        // reads as many whole blocks as fit into one chunk, the partial block at the end is read again next time
+        int want = (int) Math.min(CHUNK_BYTES, size - position);
+        ByteBuffer buffer = ByteBuffer.allocate(want);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        byte[] raw = buffer.array();
+        int length = buffer.position();
+
+        int[] blocks = new int[16];
+        int count = 0;
+        int at = 0;
+        while (at + BLOCK_HEADER <= length) {
+            int blockSize = blockSize(raw, at, length);
+            if (blockSize < 0 || at + blockSize > length) {
+                break;
+            }
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+            blocks[count++] = at;
+            at += blockSize;
+        }
+        if (count == 0) {
+            // not even one block although a block always fits into a chunk → cut off file
+            throw new EOFException("Premature end of file " + file + " at " + position);
+        }
+        position += at;
+
+        int[] starts = blocks;
+        int blockCount = count;
+        int end = at;
+        inflating.add(pool.submit(() -> inflate(raw, starts, blockCount, end)));
+        inflatingBytes.add(end);
+        aheadBytes += end;
+    }
+
+    private int blockSize(byte[] raw, int at, int length) throws IOException {
+        // total size of the block at `at`, -1 if its header is not complete yet
+        if ((raw[at] & 0xff) != 31 || (raw[at + 1] & 0xff) != 139 || raw[at + 2] != 8 || (raw[at + 3] & 4) == 0) {
+            throw new IOException("Invalid BGZF block in " + file + " at " + (position + at));
+        }
+        int xlen = u16(raw, at + 10);
+        if (at + BLOCK_HEADER + xlen > length) {
+            return -1;
+        }
+        // BSIZE lives in the BC subfield of the extra field
+        for (int field = at + BLOCK_HEADER; field + 4 <= at + BLOCK_HEADER + xlen; field += 4 + u16(raw, field + 2)) {
+            if (raw[field] == 66 && raw[field + 1] == 67 && u16(raw, field + 2) == 2) {
+                return u16(raw, field + 4) + 1;
+            }
+        }
+        throw new IOException("BGZF block without size in " + file + " at " + (position + at));
+    }
+
+    private byte[] inflate(byte[] raw, int[] starts, int count, int end) throws IOException {
+        int total = 0;
+        for (int b = 0; b < count; b++) {
+            int blockEnd = b + 1 < count ? starts[b + 1] : end;
+            total += i32(raw, blockEnd - 4);
+        }
+        byte[] out = new byte[total];
+        Inflater inflater = obtainInflater();
+        try {
+            inflateBlocks(inflater, raw, starts, count, end, out);
+        } finally {
+            releaseInflater(inflater);
+        }
+        return out;
+    }
+
+    private void inflateBlocks(Inflater inflater, byte[] raw, int[] starts, int count, int end, byte[] out) throws IOException {
+        int written = 0;
+        for (int b = 0; b < count; b++) {
+            int start = starts[b];
+            int blockEnd = b + 1 < count ? starts[b + 1] : end;
+            int data = start + BLOCK_HEADER + u16(raw, start + 10);
+            int uncompressed = i32(raw, blockEnd - 4);
+            if (uncompressed > MAX_BLOCK) {
+                throw new IOException("Invalid BGZF block size in " + file);
+            }
+            inflater.reset();
+            inflater.setInput(raw, data, blockEnd - 8 - data);
+            try {
+                int n = 0;
+                while (n < uncompressed && !inflater.finished()) {
+                    int step = inflater.inflate(out, written + n, uncompressed - n);
+                    if (step == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += step;
+                }
+                if (n != uncompressed) {
+                    throw new IOException("Corrupt BGZF block in " + file);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt BGZF block in " + file, e);
+            }
+            written += uncompressed;
+        }
+    }
+
+    private Inflater obtainInflater() {
+        synchronized (inflaters) {
+            Inflater inflater = inflaters.poll();
+            return inflater != null ? inflater : new Inflater(true);
+        }
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        synchronized (inflaters) {
+            if (!closed) {
+                inflaters.push(inflater);
+                return;
+            }
+        }
+        // stream was closed while this chunk was inflated
+        inflater.end();
+    }
+
+    private static int u16(byte[] raw, int at) {
+        return (raw[at] & 0xff) | (raw[at + 1] & 0xff) << 8;
+    }
+
+    private static int i32(byte[] raw, int at) {
+        return u16(raw, at) | u16(raw, at + 2) << 16;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        inflating.clear();
+        inflatingBytes.clear();
+        aheadBytes = 0;
+        synchronized (inflaters) {
+            closed = true;
+            inflaters.forEach(Inflater::end);
+            inflaters.clear();
+        }
+        channel.close();
+    }
+}
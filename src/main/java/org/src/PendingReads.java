@@ -0,0 +1,114 @@
+package org.src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PendingReads {
+    // reads waiting on their mate, keyed by read name: open addressing with linear probing over the
+    // 64 bit name hash of AlignedRead, names are only compared byte wise when the hashes match
+    private AlignedRead[] slots = new AlignedRead[1 << 10];
+    private int size = 0;
+
+    public AlignedRead get(AlignedRead read) {
+        // waiting read with the same name, null if there is none
+        int mask = slots.length - 1;
+        for (int i = slot(read.getNameHash(), mask); slots[i] != null; i = (i + 1) & mask) {
+            if (slots[i].hasSameName(read)) {
+                return slots[i];
+            }
+        }
+        return null;
+    }
+
+    public AlignedRead put(AlignedRead read) {
+        // returns the read with the same name that was replaced, if any
+        if (2 * (size + 1) > slots.length) {
+            grow();
+        }
+        int mask = slots.length - 1;
+        int i = slot(read.getNameHash(), mask);
+        for (; slots[i] != null; i = (i + 1) & mask) {
+            if (slots[i].hasSameName(read)) {
+                AlignedRead replaced = slots[i];
+                slots[i] = read;
+                return replaced;
+            }
+        }
+        slots[i] = read;
+        size++;
+        return null;
+    }
+
+    public AlignedRead remove(AlignedRead read) {
+        // removes and returns the waiting read with the same name, null if there is none
+        int mask = slots.length - 1;
+        for (int i = slot(read.getNameHash(), mask); slots[i] != null; i = (i + 1) & mask) {
+            if (slots[i].hasSameName(read)) {
+                AlignedRead removed = slots[i];
+                delete(i, mask);
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    private void delete(int i, int mask) {
+        // backward shift: later entries of the probe run move up, no tombstones
+        slots[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+            int home = slot(slots[j].getNameHash(), mask);
+            // move j into the hole if its home slot is not in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots[i] = slots[j];
+                slots[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void grow() {
+        AlignedRead[] old = slots;
+        slots = new AlignedRead[old.length * 2];
+        int mask = slots.length - 1;
+        for (AlignedRead read : old) {
+            if (read == null) {
+                continue;
+            }
+            int i = slot(read.getNameHash(), mask);
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = read;
+        }
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) hash & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public List<AlignedRead> values() {
+        // snapshot, the table may be changed while iterating it
+        ArrayList<AlignedRead> values = new ArrayList<>(size);
+        for (AlignedRead read : slots) {
+            if (read != null) {
+                values.add(read);
+            }
+        }
+        return values;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,581 @@
+package org.src;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class PsiWriter {
+    // writes the psi rows of a sample in genomic order: chromosomes in bam header order, within a chromosome by
+    // exon start, exon end, gene id and catalogue order → every sample lists its rows in the same order and
+    // files can be merged downstream without sorting.
+    // a chromosome is formatted by the thread that finished it and written as soon as all chromosomes in front
+    // of it are written, rows are formatted straight into bytes
+    private static final byte[] HEADER = "gene\texon\tnum_incl_reads\tnum_excl_reads\tnum_total_reads\tpsi".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    public enum Format {
+        // plain tsv
+        TSV(".psi"),
+        // the same tsv as BGZF (readable by any gzip reader) plus a linear index of the rows (<out>.idx)
+        BGZF(".psi.gz"),
+        // row groups per chromosome of int columns: event id (index in the .sec catalogue of the gtf), incl, excl
+        COLUMNAR(".psic");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Format format;
+    private final SampleEvidence evidence;
+    private final SkippedExonCatalogue catalogue;
+    private final byte[][] geneIds;
+    private final HashMap<String, List<Gene>> genesByChr = new HashMap<>();
+    private final List<String> order;
+    private final Output output;
+
+    // formatted chromosomes waiting on the ones in front of them
+    private final HashMap<String, Rows> formatted = new HashMap<>();
+    // chromosomes in front of next are written
+    private int next = 0;
+    // processing failed, nothing is written anymore
+    private boolean aborted = false;
+
+    public PsiWriter(String outPath, Format format, Genome genome, SampleEvidence evidence, List<String> chromosomes) throws IOException {
+        this.format = format;
+        this.evidence = evidence;
+        this.catalogue = genome.getSkippedExonCatalogue();
+        this.geneIds = new byte[genome.getGenes().size()][];
+        for (Gene gene : genome.getGenes()) {
+            geneIds[gene.getIndex()] = gene.getGeneId().getBytes(StandardCharsets.US_ASCII);
+            genesByChr.computeIfAbsent(gene.getChr(), chr -> new ArrayList<>()).add(gene);
+        }
+        // chromosomes of the annotation that the bam does not know have no reads, they go last
+        ArrayList<String> order = new ArrayList<>(chromosomes);
+        HashSet<String> known = new HashSet<>(chromosomes);
+        genesByChr.keySet().stream().filter(chr -> !known.contains(chr)).sorted().forEach(order::add);
+        this.order = order;
+
+        File outFile = new File(outPath);
+        File parentDir = outFile.getParentFile();
+        if (parentDir != null) {
+            parentDir.mkdirs();
+        }
+        this.output = switch (format) {
+            case TSV -> new TsvOutput(outFile);
+            case BGZF -> new BgzfOutput(outFile);
+            case COLUMNAR -> new ColumnarOutput(outFile, genome.getFingerprint());
+        };
+        if (format == Format.COLUMNAR) {
+            // event ids are meaningless without the catalogue they index
+            genome.writeSkippedExonCatalogue();
+        }
+    }
+
+    public static void decodeColumnar(String inPath, Genome genome, String outPath) throws IOException {
+        // columnar file → the tsv a run with -format tsv writes, genome has to be read from the gtf of the file
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Path.of(inPath), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.limit() < ColumnarOutput.HEADER_BYTES || in.getInt(0) != ColumnarOutput.MAGIC || in.getInt(4) != ColumnarOutput.VERSION) {
+            throw new IOException("Not a columnar psi file: " + inPath);
+        }
+        if (!genome.getFingerprint().matches(in, 8)) {
+            throw new IOException(inPath + " was not written with " + genome.getFingerprint().getGtf());
+        }
+
+        // gene of every event id
+        SkippedExonCatalogue catalogue = genome.getSkippedExonCatalogue();
+        byte[][] geneIds = new byte[genome.getGenes().size()][];
+        int eventCount = 0;
+        for (Gene gene : genome.getGenes()) {
+            geneIds[gene.getIndex()] = gene.getGeneId().getBytes(StandardCharsets.US_ASCII);
+            eventCount += catalogue.getEventCount(gene);
+        }
+        int[] eventGenes = new int[eventCount];
+        for (Gene gene : genome.getGenes()) {
+            int offset = catalogue.getEventOffset(gene);
+            Arrays.fill(eventGenes, offset, offset + catalogue.getEventCount(gene), gene.getIndex());
+        }
+
+        File outFile = new File(outPath);
+        File parentDir = outFile.getParentFile();
+        if (parentDir != null) {
+            parentDir.mkdirs();
+        }
+        Output out = new TsvOutput(outFile);
+        boolean done = false;
+        try {
+            in.position(ColumnarOutput.HEADER_BYTES);
+            for (int count = in.getInt(); count >= 0; count = in.getInt()) {
+                byte[] name = new byte[in.getShort()];
+                in.get(name);
+                Rows rows = new Rows(new String(name, StandardCharsets.UTF_8));
+                rows.allocate(count, true);
+                int events = in.position();
+                int incl = events + 4 * count;
+                int excl = incl + 4 * count;
+                for (int i = 0; i < count; i++) {
+                    int event = in.getInt(events + 4 * i);
+                    if (event < 0 || event >= eventCount) {
+                        throw new IOException("Invalid event id " + event + " in " + inPath);
+                    }
+                    rows.add(geneIds[eventGenes[event]], event, catalogue.getEventStart(event), catalogue.getEventStop(event), in.getInt(incl + 4 * i), in.getInt(excl + 4 * i));
+                }
+                in.position(excl + 4 * count);
+                out.write(rows);
+            }
+            out.close();
+            done = true;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated columnar psi file: " + inPath, e);
+        } finally {
+            if (!done) {
+                out.abort();
+            }
+        }
+    }
+
+    public void chromosomeDone(String chr) throws IOException {
+        // all evidence of chr is counted
+        Rows rows = format(chr);
+        synchronized (this) {
+            if (aborted) {
+                return;
+            }
+            formatted.put(chr, rows);
+            flushReady();
+        }
+    }
+
+    public void chromosomesDoneUpTo(String chr) throws IOException {
+        // coordinate sorted input: chr and everything in front of it in the header is counted
+        List<String> pending;
+        synchronized (this) {
+            int at = order.indexOf(chr);
+            pending = new ArrayList<>(order.subList(Math.min(next, at + 1), at + 1));
+            pending.removeAll(formatted.keySet());
+        }
+        for (String done : pending) {
+            chromosomeDone(done);
+        }
+    }
+
+    public void finish() throws IOException {
+        // everything not written yet, formatted in parallel
+        List<String> rest;
+        synchronized (this) {
+            rest = new ArrayList<>(order.subList(next, order.size()));
+            rest.removeAll(formatted.keySet());
+        }
+        List<Rows> rows = rest.parallelStream().map(this::format).toList();
+        synchronized (this) {
+            for (int i = 0; i < rest.size(); i++) {
+                formatted.put(rest.get(i), rows.get(i));
+            }
+            flushReady();
+            output.close();
+        }
+    }
+
+    public synchronized void abort() throws IOException {
+        // no truncated output is left behind, workers still running are ignored
+        if (!aborted) {
+            aborted = true;
+            output.abort();
+        }
+    }
+
+    private void flushReady() throws IOException {
+        while (next < order.size() && formatted.containsKey(order.get(next))) {
+            output.write(formatted.remove(order.get(next++)));
+        }
+        // downstream readers see every finished chromosome completely
+        output.flush();
+    }
+
+    private Rows format(String chr) {
+        Rows rows = new Rows(chr);
+        List<Gene> genes = genesByChr.get(chr);
+        if (genes == null) {
+            return rows;
+        }
+        // rows as (gene, event index within the gene), only events with reads
+        ArrayList<int[]> keys = new ArrayList<>();
+        for (int g = 0; g < genes.size(); g++) {
+            GeneEvidence geneEvidence = evidence.get(genes.get(g));
+            if (geneEvidence == null) {
+                continue;
+            }
+            int events = catalogue.getEventCount(genes.get(g));
+            for (int e = 0; e < events; e++) {
+                if (geneEvidence.getInclusion(e) != 0 || geneEvidence.getExclusion(e) != 0) {
+                    keys.add(new int[]{g, e, catalogue.getEventOffset(genes.get(g)) + e});
+                }
+            }
+        }
+        keys.sort((a, b) -> {
+            int cmp = Integer.compare(catalogue.getEventStart(a[2]), catalogue.getEventStart(b[2]));
+            if (cmp == 0) cmp = Integer.compare(catalogue.getEventStop(a[2]), catalogue.getEventStop(b[2]));
+            if (cmp == 0) cmp = genes.get(a[0]).getGeneId().compareTo(genes.get(b[0]).getGeneId());
+            return cmp != 0 ? cmp : Integer.compare(a[1], b[1]);
+        });
+
+        rows.allocate(keys.size(), format != Format.COLUMNAR);
+        for (int[] key : keys) {
+            Gene gene = genes.get(key[0]);
+            GeneEvidence geneEvidence = evidence.get(gene);
+            int incCount = geneEvidence.getInclusion(key[1]);
+            int excCount = geneEvidence.getExclusion(key[1]);
+            // handle specific edge case where a skipped exon is not mapped directly by alignment block
+            // but read pair is the only one explaining said transcript
+            int incUniqCount = incCount + geneEvidence.getSpecial(key[1]);
+            rows.add(geneIds[gene.getIndex()], key[2], catalogue.getEventStart(key[2]), catalogue.getEventStop(key[2]), incUniqCount, excCount);
+        }
+        return rows;
+    }
+
+    private static class Rows {
+        // rows of one chromosome as int columns, for the text formats also the tsv lines
+        private final String chr;
+        private int count = 0;
+        private int[] events;
+        private int[] starts;
+        private int[] stops;
+        private int[] incl;
+        private int[] excl;
+        // tsv: line i is text[lineStarts[i], lineStarts[i + 1]), starting with its \n
+        private byte[] text;
+        private int textLength = 0;
+        private int[] lineStarts;
+        private final StringBuilder number = new StringBuilder();
+
+        Rows(String chr) {
+            this.chr = chr;
+            allocate(0, false);
+        }
+
+        void allocate(int rows, boolean withText) {
+            events = new int[rows];
+            starts = new int[rows];
+            stops = new int[rows];
+            incl = new int[rows];
+            excl = new int[rows];
+            if (withText) {
+                text = new byte[Math.max(64, 64 * rows)];
+                lineStarts = new int[rows + 1];
+            }
+        }
+
+        void add(byte[] geneId, int event, int start, int stop, int incUniqCount, int excCount) {
+            events[count] = event;
+            starts[count] = start;
+            stops[count] = stop;
+            incl[count] = incUniqCount;
+            excl[count] = excCount;
+            count++;
+            if (text == null) {
+                return;
+            }
+            // \n gene \t start-(stop + 1) \t incl \t excl \t total \t psi
+            int total = incUniqCount + excCount;
+            double pct = (double) incUniqCount / total;
+            put((byte) '\n');
+            for (byte b : geneId) {
+                put(b);
+            }
+            put((byte) '\t');
+            putInt(start);
+            put((byte) '-');
+            putInt(stop + 1);
+            put((byte) '\t');
+            putInt(incUniqCount);
+            put((byte) '\t');
+            putInt(excCount);
+            put((byte) '\t');
+            putInt(total);
+            put((byte) '\t');
+            // same digits as Double.toString, without the String
+            number.setLength(0);
+            number.append(pct);
+            for (int i = 0; i < number.length(); i++) {
+                put((byte) number.charAt(i));
+            }
+            lineStarts[count] = textLength;
+        }
+
+        private void putInt(int value) {
+            if (value < 0) {
+                put((byte) '-');
+                value = -value;
+            }
+            int digits = 1;
+            while (digits <= value / 10) {
+                digits *= 10;
+            }
+            for (; digits > 0; digits /= 10) {
+                put((byte) ('0' + value / digits % 10));
+            }
+        }
+
+        private void put(byte b) {
+            if (textLength == text.length) {
+                text = Arrays.copyOf(text, textLength * 2);
+            }
+            text[textLength++] = b;
+        }
+    }
+
+    private interface Output {
+        void write(Rows rows) throws IOException;
+
+        void flush() throws IOException;
+
+        void close() throws IOException;
+
+        void abort() throws IOException;
+    }
+
+    private static class TsvOutput implements Output {
+        // one direct buffer in front of the file channel
+        private final File file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        TsvOutput(File file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            put(HEADER, HEADER.length);
+        }
+
+        @Override
+        public void write(Rows rows) throws IOException {
+            put(rows.text, rows.textLength);
+        }
+
+        private void put(byte[] bytes, int length) throws IOException {
+            for (int at = 0; at < length; ) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(buffer.remaining(), length - at);
+                buffer.put(bytes, at, n);
+                at += n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.force(false);
+            channel.close();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static class BgzfOutput implements Output {
+        // tsv in BGZF blocks plus a linear index in the spirit of tabix, big endian:
+        // int magic | int version | int #chromosomes, per chromosome:
+        //   utf name | long first row | long end | int #windows | long[#windows] first row overlapping window
+        // row positions are virtual offsets (compressed block offset << 16 | offset within the block),
+        // window w covers exon coordinates [w << WINDOW_SHIFT, (w + 1) << WINDOW_SHIFT)
+        private static final int MAGIC = 0x50534958; // "PSIX"
+        private static final int VERSION = 1;
+        private static final int WINDOW_SHIFT = 14;
+        private static final String INDEX_SUFFIX = ".idx";
+
+        private final File file;
+        private final BlockCompressedOutputStream out;
+        private final File indexFile;
+        private final ArrayList<String> names = new ArrayList<>();
+        private final ArrayList<long[]> bounds = new ArrayList<>();
+        private final ArrayList<long[]> windows = new ArrayList<>();
+
+        BgzfOutput(File file) throws IOException {
+            this.file = file;
+            this.out = new BlockCompressedOutputStream(file);
+            this.indexFile = new File(file.getPath() + INDEX_SUFFIX);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(Rows rows) throws IOException {
+            if (rows.count == 0) {
+                return;
+            }
+            long first = out.getFilePointer();
+            long[] linear = new long[0];
+            for (int i = 0; i < rows.count; i++) {
+                long offset = out.getFilePointer();
+                int from = rows.starts[i] >> WINDOW_SHIFT;
+                int to = rows.stops[i] >> WINDOW_SHIFT;
+                if (linear.length <= to) {
+                    int old = linear.length;
+                    linear = Arrays.copyOf(linear, to + 1);
+                    Arrays.fill(linear, old, linear.length, -1);
+                }
+                // rows come in file order → the first row seen is the smallest offset
+                for (int w = from; w <= to; w++) {
+                    if (linear[w] < 0) {
+                        linear[w] = offset;
+                    }
+                }
+                out.write(rows.text, rows.lineStarts[i], rows.lineStarts[i + 1] - rows.lineStarts[i]);
+            }
+            // windows without rows start where the next row starts
+            long following = out.getFilePointer();
+            for (int w = linear.length - 1; w >= 0; w--) {
+                if (linear[w] < 0) {
+                    linear[w] = following;
+                }
+                following = linear[w];
+            }
+            names.add(rows.chr);
+            bounds.add(new long[]{first, out.getFilePointer()});
+            windows.add(linear);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+                index.writeInt(MAGIC);
+                index.writeInt(VERSION);
+                index.writeInt(names.size());
+                for (int c = 0; c < names.size(); c++) {
+                    index.writeUTF(names.get(c));
+                    index.writeLong(bounds.get(c)[0]);
+                    index.writeLong(bounds.get(c)[1]);
+                    index.writeInt(windows.get(c).length);
+                    for (long offset : windows.get(c)) {
+                        index.writeLong(offset);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void abort() throws IOException {
+            // an index of an earlier run would not match anymore either
+            out.close();
+            Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(indexFile.toPath());
+        }
+    }
+
+    private static class ColumnarOutput implements Output {
+        // big endian: int magic | int version | gtf fingerprint, then one group per chromosome with rows:
+        //   int #rows | short name length | utf-8 name | int[#rows] event | int[#rows] num_incl_reads | int[#rows] num_excl_reads
+        // and int -1 at the end. event ids index the skipped exon catalogue (.sec) of the gtf with that fingerprint,
+        // exon and gene come from there, total and psi follow from the counts (see decodeColumnar)
+        private static final int MAGIC = 0x50534943; // "PSIC"
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 4 + 4 + GtfFingerprint.BYTES;
+
+        private final File file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        ColumnarOutput(File file, GtfFingerprint fingerprint) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            fingerprint.write(buffer);
+        }
+
+        @Override
+        public void write(Rows rows) throws IOException {
+            if (rows.count == 0) {
+                return;
+            }
+            byte[] name = rows.chr.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + 2 + name.length);
+            buffer.putInt(rows.count);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            putColumn(rows.events, rows.count);
+            putColumn(rows.incl, rows.count);
+            putColumn(rows.excl, rows.count);
+        }
+
+        private void putColumn(int[] column, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                ensure(4);
+                buffer.putInt(column[i]);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            ensure(4);
+            buffer.putInt(-1);
+            flush();
+            channel.force(false);
+            channel.close();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
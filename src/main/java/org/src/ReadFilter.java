@@ -0,0 +1,89 @@
+package org.src;
+
+public class ReadFilter {
+    // decides on the raw flag and reference index ints of a record, before anything else of it is decoded.
+    // every rejected record is counted for the first reason it fails, one filter per worker → no locking
+    public enum Reason {
+        UNPAIRED("unpaired"),
+        UNMAPPED("unmapped"),
+        SECONDARY("secondary"),
+        SUPPLEMENTARY("supplementary"),
+        MATE_UNMAPPED("mate unmapped"),
+        MATE_OTHER_CHROMOSOME("mate on other chromosome"),
+        SAME_STRAND("mates on same strand");
+
+        private final String label;
+
+        Reason(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Reason[] REASONS = Reason.values();
+
+    private long accepted = 0;
+    private final long[] rejected = new long[REASONS.length];
+
+    public static Reason reject(int flags, int referenceIndex, int mateReferenceIndex) {
+        // null if the record is kept
+        if ((flags & 0x1) == 0) {
+            return Reason.UNPAIRED;
+        }
+        if ((flags & 0x4) != 0) {
+            return Reason.UNMAPPED;
+        }
+        if ((flags & 0x100) != 0) {
+            return Reason.SECONDARY;
+        }
+        // chimeric pieces share the read name with the primary alignment and would steal its mate
+        if ((flags & 0x800) != 0) {
+            return Reason.SUPPLEMENTARY;
+        }
+        if ((flags & 0x8) != 0) {
+            return Reason.MATE_UNMAPPED;
+        }
+        if (referenceIndex != mateReferenceIndex) {
+            return Reason.MATE_OTHER_CHROMOSOME;
+        }
+        // read and mate strand flags
+        if (((flags & 0x10) != 0) == ((flags & 0x20) != 0)) {
+            return Reason.SAME_STRAND;
+        }
+        return null;
+    }
+
+    public boolean accept(int flags, int referenceIndex, int mateReferenceIndex) {
+        Reason reason = reject(flags, referenceIndex, mateReferenceIndex);
+        if (reason == null) {
+            accepted++;
+            return true;
+        }
+        rejected[reason.ordinal()]++;
+        return false;
+    }
+
+    public synchronized void add(ReadFilter other) {
+        // counts of a finished worker
+        accepted += other.accepted;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] += other.rejected[i];
+        }
+    }
+
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    public synchronized long getRejected(Reason reason) {
+        return rejected[reason.ordinal()];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder().append(accepted).append(" records kept");
+        for (Reason reason : REASONS) {
+            sb.append(", ").append(rejected[reason.ordinal()]).append(' ').append(reason.label);
+        }
+        return sb.toString();
+    }
+}
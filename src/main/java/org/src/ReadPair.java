@@ -1,37 +1,58 @@
 package org.src;
 
-import net.sf.samtools.AlignmentBlock;
-import net.sf.samtools.SAMRecord;
-
 import java.util.*;
 
 public class ReadPair {
-    private final SAMRecord fwRecord;
+    // reused for every pair of a worker: set() refills it, the melted blocks live in primitive arrays
+    // and Regions are only created for pairs that end up as evidence of a gene
+    private AlignedRead fwRecord;
     private final String[] MMKEYWORDS = {"NM", "nM", "XM"};
-    private final SAMRecord rwRecord;
-    private final Boolean frstrand;
-    private final int alignmentStart;
-    private final int alignmentEnd;
-    private final String chr;
-    private final String id;
+    private AlignedRead rwRecord;
+    private boolean frstrand;
+    private int alignmentStart;
+    private int alignmentEnd;
+    private String chr;
     private final ArrayList<Gene> containingGenes = new ArrayList<>();
-    private TreeSet<Region> regionVecFw = new TreeSet<>(Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getStop));
-    private TreeSet<Region> regionVecRw = new TreeSet<>(Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getStop));
+    private final ArrayList<Gene> includedGenes = new ArrayList<>();
+    private final MeltedBlocks meltedFw = new MeltedBlocks();
+    private final MeltedBlocks meltedRw = new MeltedBlocks();
+    private final Introns intronsFw = new Introns();
+    private final Introns intronsRw = new Introns();
+    // transcripts of the current gene compatible with the pair, one bit per transcript
+    private long[] compatible = new long[1];
+    private final TranscriptMatchCache matchCache = new TranscriptMatchCache(TranscriptMatchCache.DEFAULT_CAPACITY);
+    // gene lookups of coordinate sorted input, null → gene index
+    private GeneSweep geneSweep;
+    // transcript the pair was assigned to by the last successful isTranscriptomicGene (see Gene.getTranscriptOrdinal)
+    private int transcript = -1;
+
+    public ReadPair() {
+    }
 
-    public ReadPair(SAMRecord fw, SAMRecord rw, Boolean frstrand) {
+    public ReadPair(AlignedRead fw, AlignedRead rw, boolean frstrand) {
+        set(fw, rw, frstrand);
+    }
+
+    public void setGeneSweep(GeneSweep geneSweep) {
+        this.geneSweep = geneSweep;
+    }
+
+    public ReadPair set(AlignedRead fw, AlignedRead rw, boolean frstrand) {
         this.fwRecord = fw;
         this.rwRecord = rw;
         this.frstrand = frstrand;
         this.alignmentStart = Math.min(fw.getAlignmentStart(), rw.getAlignmentStart());
         this.alignmentEnd = Math.max(fw.getAlignmentEnd(), rw.getAlignmentEnd());
         this.chr = fw.getReferenceName();
-        this.id = fw.getReadName();
+        this.transcript = -1;
+        this.containingGenes.clear();
         melt();
+        return this;
     }
 
     public int getNsplit() {
         // no splits in records
-        if (fwRecord.getAlignmentBlocks().size() == 1 && rwRecord.getAlignmentBlocks().size() == 1) {
+        if (fwRecord.getBlockCount() == 1 && rwRecord.getBlockCount() == 1) {
             return 0;
         }
 
@@ -46,187 +67,285 @@ public class ReadPair {
             overlapStart = tmp + 1;
         }
 
-        HashSet<String> iFwRegions = new HashSet<>();
-        HashSet<String> iRwRegions = new HashSet<>();
-        // this set will contain all introns
-        HashSet<String> iRegions = new HashSet<>();
-
-        // append all implied introns in overlap of fw to iFwRegions
-        extractIntrons(overlapStart, overlapEnd, iFwRegions, iRegions, fwRecord);
-        // append all implied introns in overlap of rw to iRwRegions
-        extractIntrons(overlapStart, overlapEnd, iRwRegions, iRegions, rwRecord);
+        // implied introns of fw / rw, all of them and those in the overlap
+        extractIntrons(overlapStart, overlapEnd, intronsFw, fwRecord);
+        extractIntrons(overlapStart, overlapEnd, intronsRw, rwRecord);
 
         // this is a really weird edge case
         if (overlapEnd - overlapStart == -1) {
-            return iRegions.size();
+            return intronsFw.countUnion(intronsRw);
         }
 
         // implied intron missing
-        if (iRwRegions.size() != iFwRegions.size()) {
+        if (intronsFw.overlapCount != intronsRw.overlapCount) {
             return -1;
         }
 
-        // if implied introns match → return iRegions
-        if (iRwRegions.containsAll(iFwRegions)) {
-            return iRegions.size();
+        // if implied introns match → return all introns
+        if (Arrays.equals(intronsFw.overlap, 0, intronsFw.overlapCount, intronsRw.overlap, 0, intronsRw.overlapCount)) {
+            return intronsFw.countUnion(intronsRw);
         }
         // they dont → inconsistent
         return -1;
     }
 
-    public void extractIntrons(int overlapStart, int overlapEnd, HashSet<String> recordRegions, HashSet<String> iRegions, SAMRecord record) {
-        // basically extracts introns and adds them to corresponding sets
-        for (int i = 0; i < record.getAlignmentBlocks().size() - 1; i++) {
-            int iStart = record.getAlignmentBlocks().get(i).getReferenceStart() + record.getAlignmentBlocks().get(i).getLength();
-            int iEnd = record.getAlignmentBlocks().get(i + 1).getReferenceStart();
+    public void extractIntrons(int overlapStart, int overlapEnd, Introns introns, AlignedRead record) {
+        // basically extracts introns and adds them to corresponding arrays
+        // blocks are sorted → introns come sorted and distinct, no set needed
+        introns.clear(record.getBlockCount());
+        for (int i = 0; i < record.getBlockCount() - 1; i++) {
+            int iStart = record.getBlockStop(i) + 1;
+            int iEnd = record.getBlockStart(i + 1);
             if (iStart - iEnd == 0) {
                 continue;
             }
-            iRegions.add(iStart + "-" + iEnd);
-            if ((iStart >= overlapStart && iStart <= overlapEnd) || (iEnd >= overlapStart && iEnd <= overlapEnd)) {
-                recordRegions.add(iStart + "-" + iEnd);
-            }
-            if (iStart <= overlapStart && iEnd >= overlapEnd) {
-                recordRegions.add(iStart + "-" + iEnd);
+            long key = intronKey(iStart, iEnd);
+            introns.all[introns.allCount++] = key;
+            if ((iStart >= overlapStart && iStart <= overlapEnd) || (iEnd >= overlapStart && iEnd <= overlapEnd)
+                    || (iStart <= overlapStart && iEnd >= overlapEnd)) {
+                introns.overlap[introns.overlapCount++] = key;
             }
         }
     }
 
-    public int getcgenes(Genome genome) {
-        ArrayList<Gene> cgenes;
-        cgenes = genome.getIntervalTreeMap()
-                .get(this.chr)
-                .get(this.frstrand) // CHECK IF THIS SHOULD BE NULL
-                .getIntervalsSpanning(this.alignmentStart, this.alignmentEnd, new ArrayList<>());
+    private static long intronKey(int iStart, int iEnd) {
+        // both coordinates are positive → ordering of the keys is the ordering by start, then end
+        return ((long) iStart << 32) | iEnd;
+    }
 
-        if (!cgenes.isEmpty()) {
-            // add genes for later annotation
-            containingGenes.addAll(cgenes);
+    public int getcgenes(Genome genome) {
+        if (geneSweep != null) {
+            geneSweep.getGenesSpanning(this.chr, this.frstrand, this.alignmentStart, this.alignmentEnd, containingGenes);
+            return containingGenes.size();
+        }
+        IntervalIndex<Gene> index = genome.getGeneIndex(this.chr, this.frstrand); // CHECK IF THIS SHOULD BE NULL
+        // no genes annotated on this chromosome / strand
+        if (index == null) {
+            return 0;
         }
-        return cgenes.size();
+        // add genes for later annotation
+        index.getIntervalsSpanning(this.alignmentStart, this.alignmentEnd, containingGenes);
+        return containingGenes.size();
     }
 
     public int getigenes(Genome genome) {
-        ArrayList<Gene> igenes;
-        igenes = genome.getIntervalTreeMap()
-                .get(this.chr)
-                .get(this.frstrand)
-                .getIntervalsSpannedBy(this.alignmentStart, this.alignmentEnd, new ArrayList<>());
+        includedGenes.clear();
+        if (geneSweep != null) {
+            geneSweep.getGenesSpannedBy(this.chr, this.frstrand, this.alignmentStart, this.alignmentEnd, includedGenes);
+            return includedGenes.size();
+        }
+        IntervalIndex<Gene> index = genome.getGeneIndex(this.chr, this.frstrand);
+        if (index == null) {
+            return 0;
+        }
+        index.getIntervalsSpannedBy(this.alignmentStart, this.alignmentEnd, includedGenes);
 
-        return igenes.size();
+        return includedGenes.size();
     }
 
-    public ArrayList<Gene> getTranscriptomicGenes() {
-        ArrayList<Gene> transcriptomicGenes = new ArrayList<>();
+    public int getTranscriptomicGenes(SampleEvidence sampleEvidence) {
+        SkippedExonCatalogue catalogue = sampleEvidence.getCatalogue();
+        int transcriptomicGenes = 0;
         // go through all genes
-        for (Gene gene : containingGenes) {
+        for (int g = 0; g < containingGenes.size(); g++) {
+            Gene gene = containingGenes.get(g);
+            // nothing to count for genes without skipped exon events
+            if (catalogue.getEventCount(gene) == 0) {
+                continue;
+            }
             // check if read mapps to exacly one transcript
             if (!isTranscriptomicGene(gene)) {
                 continue;
             }
 
-            // add alignment blocks and their gaps to gene
-            gene.addAlignedBlocks(this.regionVecFw, "FW");
-            gene.addAlignedBlocks(this.regionVecRw, "RW");
-
-            // also add gap between last region of fw and first region of rw
-            Region fwLastBlock = regionVecFw.getLast();
-            Region rwFirstBlock = regionVecRw.getLast();
-            gene.addReadPairGap(fwLastBlock, rwFirstBlock);
-
-            transcriptomicGenes.add(gene);
+            countEvents(catalogue, gene, sampleEvidence.getOrCreate(gene));
+            transcriptomicGenes++;
         }
 
         return transcriptomicGenes;
     }
 
-    public boolean isTranscriptomicGene(Gene gene) {
-        int counter = 0;
-        // variable to strore matched transcript
-        // if only one transcript matches read → add this Id to the read
-        String transcriptID = null;
-        for (Transcript transcript : gene.getTranscriptList()) {
-            // cut fwx1 fwx2 from transcript exons
-            TreeSet<Region> cutFwRegions = transcript.cutSet(fwRecord.getAlignmentStart(), fwRecord.getAlignmentEnd());
-
-            // skip if there are no regions in x1-x2
-            if (cutFwRegions.isEmpty()) {
+    private void countEvents(SkippedExonCatalogue catalogue, Gene gene, GeneEvidence evidence) {
+        // blocks and gaps of the pair all lie in [alignmentStart, alignmentEnd] → only events overlapping it can count
+        int first = catalogue.getEventOffset(gene);
+        int end = first + catalogue.getEventCount(gene);
+
+        // gap between last region of fw and last region of rw
+        int fwLast = meltedFw.count - 1;
+        int rwLast = meltedRw.count - 1;
+        boolean fwFirst = meltedFw.starts[fwLast] <= meltedRw.starts[rwLast];
+        int mateGapStart = (fwFirst ? meltedFw.stops[fwLast] : meltedRw.stops[rwLast]) + 1;
+        int mateGapStop = (fwFirst ? meltedRw.starts[rwLast] : meltedFw.starts[fwLast]) - 1;
+
+        for (int rank = catalogue.firstOverlapping(gene, alignmentStart); rank < end; rank++) {
+            int event = catalogue.getEventByStart(rank);
+            int start = catalogue.getEventStart(event);
+            int stop = catalogue.getEventStop(event);
+            if (start > alignmentEnd) {
+                break;
+            }
+            if (stop < alignmentStart) {
                 continue;
             }
 
-            // only if the above passes check rw
-            if (cutFwRegions.equals(regionVecFw)) {
-                // cut rwx1 rwx2 from transcript exons
-                TreeSet<Region> cutRwRegions = transcript.cutSet(rwRecord.getAlignmentStart(), rwRecord.getAlignmentEnd());
-
-                // skip if there are no regions in x1-x2
-                if (cutRwRegions.isEmpty()) {
-                    continue;
-                }
-
-                if (cutRwRegions.equals(regionVecRw)) {
-                    counter++;
-                    transcriptID = transcript.getTranscriptId();
-//                    return true;
+            boolean included = meltedFw.hasBlockWithin(start, stop) || meltedRw.hasBlockWithin(start, stop);
+            boolean excluded = meltedFw.hasGapSpanning(start, stop) || meltedRw.hasGapSpanning(start, stop);
+            boolean special = false;
+            if (mateGapStart <= start && mateGapStop >= stop) {
+                // the mate gap only explains the skipped exon of its own transcript
+                if (catalogue.getEventTranscript(event) == this.transcript) {
+                    special = true;
+                } else {
+                    excluded = true;
                 }
             }
+            evidence.count(event - first, included, excluded, special && !included);
         }
-        if(counter == 1) {
-            for (Region r: regionVecFw) {
-                r.setTranscriptId(transcriptID);
-            }
-            for (Region r: regionVecRw) {
-                r.setTranscriptId(transcriptID);
+    }
+
+    public boolean isTranscriptomicGene(Gene gene) {
+        // walk fw and rw through the splice graph of the gene,
+        // if only one transcript matches read → add this Id to the read
+        SpliceGraph graph = gene.getSpliceGraph();
+        int transcript;
+        if (graph.isCacheable() && meltedFw.spans(fwRecord) && meltedRw.spans(rwRecord)) {
+            // pairs with the same block structure were most likely seen before
+            TranscriptMatchCache.Key key = matchCache.probe();
+            key.add(gene.getIndex());
+            meltedFw.addBins(graph, key);
+            meltedRw.addBins(graph, key);
+            Integer cached = matchCache.get();
+            if (cached != null) {
+                transcript = cached;
+            } else {
+                transcript = findCompatibleTranscript(graph);
+                matchCache.put(transcript);
             }
+        } else {
+            transcript = findCompatibleTranscript(graph);
+        }
+
+        if (transcript >= 0) {
+            this.transcript = gene.getTranscriptOrdinal(transcript);
             return true;
         }
         return false;
     }
 
+    private int findCompatibleTranscript(SpliceGraph graph) {
+        if (compatible.length < graph.words()) {
+            compatible = new long[graph.words()];
+        }
+        graph.fill(compatible);
+        graph.retainCompatible(fwRecord.getAlignmentStart(), fwRecord.getAlignmentEnd(), meltedFw.starts, meltedFw.stops, meltedFw.count, compatible);
+        graph.retainCompatible(rwRecord.getAlignmentStart(), rwRecord.getAlignmentEnd(), meltedRw.starts, meltedRw.stops, meltedRw.count, compatible);
+        return graph.single(compatible);
+    }
+
     public void melt() {
-        // melt all regions fw, rw, and merged)
-        ArrayList<AlignmentBlock> allBlocks = new ArrayList<>();
-        ArrayList<AlignmentBlock> fwBlocks = new ArrayList<>();
-        ArrayList<AlignmentBlock> rwBlocks = new ArrayList<>();
-        fwBlocks.addAll(fwRecord.getAlignmentBlocks());
-        rwBlocks.addAll(rwRecord.getAlignmentBlocks());
-        allBlocks.addAll(fwBlocks);
-        allBlocks.addAll(rwBlocks);
-        this.regionVecFw = meltRegion(fwBlocks);
-        this.regionVecRw = meltRegion(rwBlocks);
-//        this.meltedBlocks = meltRegion(allBlocks);
-    }
-
-    public TreeSet<Region> meltRegion(ArrayList<AlignmentBlock> blocks) {
-        // for a given list of alignmentblocks, melt into TreeSet
-        TreeSet<Region> melted = new TreeSet<>(
-                Comparator.comparingInt(Region::getStart)
-                        .thenComparingInt(Region::getStop)
-        );
-        if (blocks.size() == 1) {
-            melted.add(new Region(this.id, blocks.getFirst().getReferenceStart(), blocks.getFirst().getReferenceStart() + blocks.getFirst().getLength() - 1));
-            return melted;
-        }
-        Collections.sort(blocks, Comparator.comparingInt(AlignmentBlock::getReferenceStart));
-        AlignmentBlock first = blocks.getFirst();
-        Region current = new Region(this.id, first.getReferenceStart(), first.getReferenceStart() + first.getLength() - 1);
-
-        for (int i = 1; i < blocks.size(); i++) {
-            AlignmentBlock block = blocks.get(i);
-            if (block.getReferenceStart() <= current.getStop() + 1) {
-                current.setStop(Math.max(current.getStop(), block.getReferenceStart() + block.getLength() - 1));
-            } else {
-                melted.add(current);
-                current = new Region(this.id, block.getReferenceStart(), block.getReferenceStart() + block.getLength() - 1);
+        // melt all regions fw, rw
+        meltedFw.melt(fwRecord);
+        meltedRw.melt(rwRecord);
+    }
+
+    public boolean getFrstrand() {
+        return frstrand;
+    }
+
+    private static class MeltedBlocks {
+        // alignment blocks of one record with touching / overlapping blocks merged, start and stop inclusive
+        private int[] starts = new int[4];
+        private int[] stops = new int[4];
+        private int count;
+
+        void melt(AlignedRead record) {
+            // blocks come in cigar order and are therefore already sorted by reference start
+            if (starts.length < record.getBlockCount()) {
+                starts = new int[record.getBlockCount()];
+                stops = new int[record.getBlockCount()];
+            }
+            starts[0] = record.getBlockStart(0);
+            stops[0] = record.getBlockStop(0);
+            count = 1;
+            for (int i = 1; i < record.getBlockCount(); i++) {
+                int blockStart = record.getBlockStart(i);
+                int blockStop = record.getBlockStop(i);
+                if (blockStart <= stops[count - 1] + 1) {
+                    stops[count - 1] = Math.max(stops[count - 1], blockStop);
+                } else {
+                    starts[count] = blockStart;
+                    stops[count] = blockStop;
+                    count++;
+                }
+            }
+        }
+
+        boolean spans(AlignedRead record) {
+            // blocks reach from alignment start to end (no deletion at either end)
+            return starts[0] == record.getAlignmentStart() && stops[count - 1] == record.getAlignmentEnd();
+        }
+
+        boolean hasBlockWithin(int start, int stop) {
+            for (int i = 0; i < count; i++) {
+                if (start <= starts[i] && stops[i] <= stop) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean hasGapSpanning(int start, int stop) {
+            // gaps between neighbouring blocks
+            for (int i = 1; i < count; i++) {
+                if (stops[i - 1] + 1 <= start && starts[i] - 1 >= stop) {
+                    return true;
+                }
             }
+            return false;
         }
 
-        // add last block
-        melted.add(current);
-        return melted;
+        void addBins(SpliceGraph graph, TranscriptMatchCache.Key key) {
+            key.add(count);
+            for (int i = 0; i < count; i++) {
+                key.add(graph.startBin(starts[i]));
+                key.add(graph.stopBin(stops[i]));
+            }
+        }
     }
 
-    public Boolean getFrstrand() {
-        return frstrand;
+    public static class Introns {
+        // packed (start << 32 | end) keys of the implied introns of one record, in ascending order
+        private long[] all = new long[4];
+        private int allCount;
+        private long[] overlap = new long[4];
+        private int overlapCount;
+
+        void clear(int blocks) {
+            if (all.length < blocks) {
+                all = new long[blocks];
+                overlap = new long[blocks];
+            }
+            allCount = 0;
+            overlapCount = 0;
+        }
+
+        int countUnion(Introns other) {
+            // number of distinct introns of both records, merge of two sorted arrays
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < allCount && j < other.allCount) {
+                if (all[i] == other.all[j]) {
+                    i++;
+                    j++;
+                } else if (all[i] < other.all[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+                count++;
+            }
+            return count + (allCount - i) + (other.allCount - j);
+        }
     }
-}
\ No newline at end of file
+}
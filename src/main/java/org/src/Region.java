@@ -3,12 +3,12 @@ package org.src;
 import augmentedTree.Interval;
 
 public class Region implements Interval {
+    // interval plus its position in the cds list and, for skipped exon events, the transcript it was skipped in
+    // (ordinal within the gene, see Gene.getTranscriptOrdinal) → no strings per region
     private int start;
     private int stop;
-    private String id;
-    private String transcriptId;
-    private String type = null;
     private int pos;
+    private int transcript = -1;
 
     public Region(int start, int end) {
         this.start = start;
@@ -20,12 +20,6 @@ public class Region implements Interval {
         this.pos = pos;
     }
 
-    public Region(String id, int start, int end) {
-        this.id = id;
-        this.start = start;
-        this.stop = end;
-    }
-
     @Override
     public int getStart() {
         return start;
@@ -46,7 +40,7 @@ public class Region implements Interval {
 
     @Override
     public String toString() {
-        return getId() + ": " + getStart() + "-" + getStop() + " → " + getTranscriptId() + " → " + getType();
+        return getStart() + "-" + getStop() + " → " + getTranscript();
     }
     public int getPos() {
         return pos;
@@ -61,7 +55,6 @@ public class Region implements Interval {
         int result = 17;
         result = 31 * result + start;
         result = 31 * result + stop;
-        result = 31 * result + (id != null ? id.hashCode() : 0);
         return result;
     }
     @Override
@@ -75,26 +68,11 @@ public class Region implements Interval {
         return this.start <= other.start && this.stop >= other.stop;
     }
 
-    public String getId() {
-        return id;
-    }
-
-    public void setTranscriptId(String transcriptId) {
-        this.transcriptId = transcriptId;
-    }
-
-    public String getTranscriptId() {
-        return transcriptId;
-    }
-
-    public String getType() {
-        return this.type;
-    }
-    public void setType(String t) {
-        this.type = t;
+    public void setTranscript(int transcript) {
+        this.transcript = transcript;
     }
 
-    public String debug() {
-        return getId() + ": " + getStart() + "-" + getStop() + " → " + getTranscriptId();
+    public int getTranscript() {
+        return transcript;
     }
 }
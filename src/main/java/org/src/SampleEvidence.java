@@ -0,0 +1,30 @@
+package org.src;
+
+public class SampleEvidence {
+    // read evidence of one sample, indexed by Gene.getIndex()
+    // chromosome workers only ever touch their own genes → no locking needed
+    private final GeneEvidence[] evidence;
+    private final SkippedExonCatalogue catalogue;
+
+    public SampleEvidence(Genome genome) {
+        this.evidence = new GeneEvidence[genome.getGenes().size()];
+        this.catalogue = genome.getSkippedExonCatalogue();
+    }
+
+    public SkippedExonCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    public GeneEvidence get(Gene gene) {
+        return evidence[gene.getIndex()];
+    }
+
+    public GeneEvidence getOrCreate(Gene gene) {
+        GeneEvidence geneEvidence = evidence[gene.getIndex()];
+        if (geneEvidence == null) {
+            geneEvidence = new GeneEvidence(catalogue.getEventCount(gene));
+            evidence[gene.getIndex()] = geneEvidence;
+        }
+        return geneEvidence;
+    }
+}
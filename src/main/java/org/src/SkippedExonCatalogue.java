@@ -0,0 +1,207 @@
+package org.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class SkippedExonCatalogue {
+    // binary layout (big endian):
+    // int magic | int version | gtf fingerprint | int #genes | int #events
+    // int[#genes + 1] event offsets per gene index
+    // #events x (int start | int stop | int pos | int transcript index within gene)
+    public static final String SUFFIX = ".sec";
+    private static final int MAGIC = 0x50534543; // "PSEC"
+    private static final int VERSION = 2;
+    private static final int GENE_COUNT_AT = 4 + 4 + GtfFingerprint.BYTES;
+    private static final int HEADER_BYTES = GENE_COUNT_AT + 4 + 4;
+    private static final int EVENT_BYTES = 4 * 4;
+
+    private final ByteBuffer buffer;
+    private final int eventsOffset;
+    // events of every gene ordered by start (within the offsets of the gene) → the events a read pair
+    // can touch are found by binary search, the file order is kept for the output
+    private final int[] byStart;
+    private final int[] byStartStarts;
+    // longest event per gene, bounds how far in front of a read an overlapping event can start
+    private final int[] maxLength;
+
+    private SkippedExonCatalogue(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int geneCount = buffer.getInt(GENE_COUNT_AT);
+        this.eventsOffset = HEADER_BYTES + 4 * (geneCount + 1);
+
+        int eventCount = getEventOffset(geneCount);
+        this.byStart = new int[eventCount];
+        this.byStartStarts = new int[eventCount];
+        long[] keys = new long[eventCount];
+        for (int e = 0; e < eventCount; e++) {
+            keys[e] = ((long) getEventStart(e) << 32) | e;
+        }
+        this.maxLength = new int[geneCount];
+        for (int g = 0; g < geneCount; g++) {
+            Arrays.sort(keys, getEventOffset(g), getEventOffset(g + 1));
+            for (int e = getEventOffset(g); e < getEventOffset(g + 1); e++) {
+                maxLength[g] = Math.max(maxLength[g], getEventStop(e) - getEventStart(e) + 1);
+            }
+        }
+        for (int i = 0; i < eventCount; i++) {
+            byStart[i] = (int) keys[i];
+            byStartStarts[i] = (int) (keys[i] >>> 32);
+        }
+    }
+
+    public static File catalogueFile(File gtf) {
+        return new File(gtf.getPath() + SUFFIX);
+    }
+
+    public static SkippedExonCatalogue build(List<Gene> genes) {
+        // genes are independent and read only → detect their events in parallel, the list keeps gene order
+        List<List<Region>> geneEvents = genes.parallelStream().map(Gene::findSkippedCds).toList();
+        int eventCount = 0;
+        for (List<Region> events : geneEvents) {
+            if (events != null) {
+                eventCount += events.size();
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (genes.size() + 1) + EVENT_BYTES * eventCount);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        // fingerprint is only filled in by write(), an in memory catalogue does not need the checksum
+        buffer.position(buffer.position() + GtfFingerprint.BYTES);
+        buffer.putInt(genes.size());
+        buffer.putInt(eventCount);
+
+        int offset = 0;
+        for (List<Region> events : geneEvents) {
+            buffer.putInt(offset);
+            offset += events == null ? 0 : events.size();
+        }
+        buffer.putInt(offset);
+
+        for (int i = 0; i < genes.size(); i++) {
+            List<Region> events = geneEvents.get(i);
+            if (events == null) {
+                continue;
+            }
+            for (Region event : events) {
+                buffer.putInt(event.getStart());
+                buffer.putInt(event.getStop());
+                buffer.putInt(event.getPos());
+                buffer.putInt(event.getTranscript());
+            }
+        }
+        buffer.flip();
+        return new SkippedExonCatalogue(buffer);
+    }
+
+    public static SkippedExonCatalogue load(GtfFingerprint fingerprint, int geneCount) throws IOException {
+        // returns null if there is no catalogue or it was built from a different gtf
+        File catalogue = catalogueFile(fingerprint.getGtf());
+        if (!catalogue.isFile()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(catalogue, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getInt(GENE_COUNT_AT) != geneCount
+                || !fingerprint.matches(buffer, 8)) {
+            return null;
+        }
+        // a truncated or partly written file is rebuilt like a stale one
+        long eventsOffset = HEADER_BYTES + 4L * (geneCount + 1);
+        if (buffer.limit() < eventsOffset) {
+            return null;
+        }
+        int eventCount = buffer.getInt(HEADER_BYTES + 4 * geneCount);
+        if (eventCount < 0
+                || eventCount != buffer.getInt(GENE_COUNT_AT + 4)
+                || buffer.limit() != eventsOffset + (long) EVENT_BYTES * eventCount) {
+            return null;
+        }
+        return new SkippedExonCatalogue(buffer);
+    }
+
+    public void write(File out, GtfFingerprint fingerprint) throws IOException {
+        // written next to the target and moved in place, a running job may still have the old one mapped.
+        // every writer has its own temp file → concurrent -index runs or sample jobs do not move each other's
+        Path tmp = Files.createTempFile(out.getAbsoluteFile().getParentFile().toPath(), out.getName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.put(buffer.duplicate().position(0).limit(HEADER_BYTES));
+                header.position(8);
+                fingerprint.write(header);
+                header.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                ByteBuffer body = buffer.duplicate().position(HEADER_BYTES);
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+            Files.move(tmp, out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public int getEventOffset(Gene gene) {
+        // index of the first event of gene, events of a gene are numbered consecutively
+        return getEventOffset(gene.getIndex());
+    }
+
+    public int getEventCount(Gene gene) {
+        return getEventOffset(gene.getIndex() + 1) - getEventOffset(gene.getIndex());
+    }
+
+    private int getEventOffset(int geneIndex) {
+        return buffer.getInt(HEADER_BYTES + 4 * geneIndex);
+    }
+
+    public int getEventStart(int event) {
+        return buffer.getInt(eventsOffset + EVENT_BYTES * event);
+    }
+
+    public int getEventStop(int event) {
+        return buffer.getInt(eventsOffset + EVENT_BYTES * event + 4);
+    }
+
+    public int getEventTranscript(int event) {
+        // index into the transcript list of the gene, the first one if several share the id (see Gene.getTranscriptOrdinal)
+        return buffer.getInt(eventsOffset + EVENT_BYTES * event + 12);
+    }
+
+    public int firstOverlapping(Gene gene, int pos) {
+        // rank of the first event of gene that can reach pos or anything behind it, see getEventByStart
+        int from = pos - maxLength[gene.getIndex()] + 1;
+        int lo = getEventOffset(gene);
+        int hi = getEventOffset(gene.getIndex() + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byStartStarts[mid] < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int getEventByStart(int rank) {
+        return byStart[rank];
+    }
+}
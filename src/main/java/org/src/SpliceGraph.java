@@ -0,0 +1,212 @@
+package org.src;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+public class SpliceGraph {
+    // all exon boundaries of a gene cut it into segments, for every segment we keep the transcripts that
+    // cover it and the transcripts with an exon starting at it (one bit per transcript, words longs per segment).
+    // a read block is compatible with a transcript if the transcript covers every segment of the block
+    // without an exon border inside it and none of the segments between the blocks
+    // → one walk over the segments of a read gives all compatible transcripts at once
+    private final List<Transcript> transcripts;
+    private final int words;
+    // segment k is [bounds[k], bounds[k + 1] - 1]
+    private final int[] bounds;
+    private final int segments;
+    private final long[] coverage;
+    private final long[] exonStarts;
+    // transcripts with an unusual exon order, these are checked one by one (see Transcript.cutMatches)
+    private final long[] unindexed;
+    private final boolean hasUnindexed;
+
+    public SpliceGraph(List<Transcript> transcripts) {
+        this.transcripts = transcripts;
+        this.words = Math.max(1, (transcripts.size() + Long.SIZE - 1) / Long.SIZE);
+        this.unindexed = new long[words];
+
+        TreeSet<Integer> borders = new TreeSet<>();
+        boolean anyUnindexed = false;
+        for (int t = 0; t < transcripts.size(); t++) {
+            Transcript transcript = transcripts.get(t);
+            if (!transcript.hasSortedExonBounds()) {
+                unindexed[t / Long.SIZE] |= 1L << t;
+                anyUnindexed = true;
+                continue;
+            }
+            int[] starts = transcript.getExonBoundStarts();
+            int[] stops = transcript.getExonBoundStops();
+            for (int e = 0; e < starts.length; e++) {
+                borders.add(starts[e]);
+                borders.add(stops[e] + 1);
+            }
+        }
+        this.hasUnindexed = anyUnindexed;
+        this.bounds = borders.stream().mapToInt(Integer::intValue).toArray();
+        this.segments = Math.max(0, bounds.length - 1);
+        this.coverage = new long[segments * words];
+        this.exonStarts = new long[segments * words];
+
+        for (int t = 0; t < transcripts.size(); t++) {
+            Transcript transcript = transcripts.get(t);
+            if (!transcript.hasSortedExonBounds()) {
+                continue;
+            }
+            int[] starts = transcript.getExonBoundStarts();
+            int[] stops = transcript.getExonBoundStops();
+            for (int e = 0; e < starts.length; e++) {
+                int first = Arrays.binarySearch(bounds, starts[e]);
+                int last = Arrays.binarySearch(bounds, stops[e] + 1) - 1;
+                exonStarts[first * words + t / Long.SIZE] |= 1L << t;
+                for (int k = first; k <= last; k++) {
+                    coverage[k * words + t / Long.SIZE] |= 1L << t;
+                }
+            }
+        }
+    }
+
+    public int words() {
+        return words;
+    }
+
+    public void fill(long[] set) {
+        // all transcripts of the gene
+        Arrays.fill(set, 0, words, 0);
+        for (int t = 0; t < transcripts.size(); t++) {
+            set[t / Long.SIZE] |= 1L << t;
+        }
+    }
+
+    public void retainCompatible(int x1, int x2, int[] starts, int[] stops, int count, long[] set) {
+        // keeps the transcripts for which cutSet(x1, x2) equals the sorted, disjoint blocks
+        if (count == 0 || x1 > starts[0] || stops[count - 1] > x2) {
+            // blocks outside of [x1, x2] → no shortcut, check every transcript
+            retainCutMatches(x1, x2, starts, stops, count, set, true);
+            return;
+        }
+        // next position of [x1, x2] that was not checked yet
+        int pos = x1;
+        for (int b = 0; b < count && !isEmpty(set); b++) {
+            if (starts[b] > pos) {
+                excludeCovering(pos, starts[b] - 1, set);
+            }
+            retainCovering(starts[b], stops[b], set);
+            pos = stops[b] + 1;
+        }
+        if (pos <= x2) {
+            excludeCovering(pos, x2, set);
+        }
+        if (hasUnindexed) {
+            retainCutMatches(x1, x2, starts, stops, count, set, false);
+        }
+    }
+
+    public boolean isCacheable() {
+        // results of transcripts checked one by one depend on the exact coordinates
+        return !hasUnindexed;
+    }
+
+    public int startBin(int pos) {
+        // segment of a block start and whether it sits right on the border of that segment,
+        // blocks with equal bins (and x1 / x2 at the outer block ends) keep the same transcripts
+        int k = segmentAt(pos);
+        return 2 * k + (k >= 0 && bounds[k] == pos ? 1 : 0);
+    }
+
+    public int stopBin(int pos) {
+        int k = segmentAt(pos);
+        return 2 * k + (k + 1 < bounds.length && bounds[k + 1] == pos + 1 ? 1 : 0);
+    }
+
+    public int single(long[] set) {
+        // index of the only transcript in set, -1 if there is none or more than one
+        int found = -1;
+        for (int w = 0; w < words; w++) {
+            if (set[w] == 0) {
+                continue;
+            }
+            if (found >= 0 || Long.bitCount(set[w]) > 1) {
+                return -1;
+            }
+            found = w * Long.SIZE + Long.numberOfTrailingZeros(set[w]);
+        }
+        return found;
+    }
+
+    private void retainCovering(int start, int stop, long[] set) {
+        // transcripts covering all of [start, stop] with a single exon
+        int first = segmentAt(start);
+        int last = segmentAt(stop);
+        if (first < 0 || last >= segments) {
+            retainUnindexed(set);
+            return;
+        }
+        for (int k = first; k <= last; k++) {
+            int at = k * words;
+            for (int w = 0; w < words; w++) {
+                long keep = coverage[at + w] | unindexed[w];
+                if (k > first) {
+                    // exon border inside the block → the cut splits it
+                    keep &= ~exonStarts[at + w];
+                }
+                set[w] &= keep;
+            }
+        }
+    }
+
+    private void excludeCovering(int start, int stop, long[] set) {
+        // transcripts with any exonic position in [start, stop]
+        int first = Math.max(0, segmentAt(start));
+        int last = Math.min(segments - 1, segmentAt(stop));
+        for (int k = first; k <= last; k++) {
+            int at = k * words;
+            for (int w = 0; w < words; w++) {
+                set[w] &= ~coverage[at + w];
+            }
+        }
+    }
+
+    private void retainUnindexed(long[] set) {
+        for (int w = 0; w < words; w++) {
+            set[w] &= unindexed[w];
+        }
+    }
+
+    private void retainCutMatches(int x1, int x2, int[] starts, int[] stops, int count, long[] set, boolean all) {
+        for (int t = 0; t < transcripts.size(); t++) {
+            long bit = 1L << t;
+            int w = t / Long.SIZE;
+            if ((set[w] & bit) == 0 || (!all && (unindexed[w] & bit) == 0)) {
+                continue;
+            }
+            if (!transcripts.get(t).cutMatches(x1, x2, starts, stops, count)) {
+                set[w] &= ~bit;
+            }
+        }
+    }
+
+    private int segmentAt(int pos) {
+        // last k with bounds[k] <= pos, -1 in front of the first border, segments behind the last one
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bounds[mid] <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    private boolean isEmpty(long[] set) {
+        for (int w = 0; w < words; w++) {
+            if (set[w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -9,14 +9,21 @@ public class Transcript {
     private final String transcriptId;
     private final int start;
     private final int stop;
-    private final ArrayList<Exon> exonList = new ArrayList<>();
-    private final HashMap<Integer, Exon> exonStarts = new HashMap<>();
-    private final HashMap<Integer, Exon> exonEnds = new HashMap<>();
+    private List<Exon> exonList = new ArrayList<>();
+    private Map<Integer, Exon> exonStarts = new HashMap<>();
+    private Map<Integer, Exon> exonEnds = new HashMap<>();
 
-    private final ArrayList<Region> cdsList = new ArrayList<>();
-    private final HashMap<Integer, Region> cdsStarts = new HashMap<>();
-    private final HashMap<Integer, Region> cdsEnds = new HashMap<>();
+    private List<Region> cdsList = new ArrayList<>();
+    private Map<Integer, Region> cdsStarts = new HashMap<>();
+    private Map<Integer, Region> cdsEnds = new HashMap<>();
     private final char strand;
+    private boolean sealed = false;
+    // exon boundaries in the order cut() visits the exons, only used if that order is ascending
+    // and the exons are proper and do not overlap → cut of [x1, x2] is a binary search plus a short walk
+    private int[] exonBoundStarts;
+    private int[] exonBoundStops;
+    private boolean exonBoundsSorted = false;
+    private static final Comparator<Region> BY_START_STOP = Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getStop);
     private String transcriptSeq; // patched together using its exons
     public Transcript(String transcriptId, char strand, int start, int stop) {
         this.transcriptId = transcriptId;
@@ -25,7 +32,41 @@ public class Transcript {
         this.stop = stop;
     }
 
+    public void seal() {
+        // cds of the minus strand come 3' → 5' from the gtf, flip them once so that pos follows the coordinates
+        if (strand == '-') {
+            Collections.reverse(this.cdsList);
+            for (int i = 0; i < cdsList.size(); i++) {
+                cdsList.get(i).setPos(i);
+            }
+        }
+        buildExonBounds();
+        this.exonList = Collections.unmodifiableList(exonList);
+        this.exonStarts = Collections.unmodifiableMap(exonStarts);
+        this.exonEnds = Collections.unmodifiableMap(exonEnds);
+        this.cdsList = Collections.unmodifiableList(cdsList);
+        this.cdsStarts = Collections.unmodifiableMap(cdsStarts);
+        this.cdsEnds = Collections.unmodifiableMap(cdsEnds);
+        this.sealed = true;
+    }
+
+    private void buildExonBounds() {
+        int n = exonList.size();
+        exonBoundStarts = new int[n];
+        exonBoundStops = new int[n];
+        exonBoundsSorted = true;
+        for (int i = 0; i < n; i++) {
+            Exon exon = strand == '-' ? exonList.get(n - 1 - i) : exonList.get(i);
+            exonBoundStarts[i] = exon.getStart();
+            exonBoundStops[i] = exon.getStop();
+            if (exonBoundStarts[i] > exonBoundStops[i] || (i > 0 && exonBoundStarts[i] <= exonBoundStops[i - 1])) {
+                exonBoundsSorted = false;
+            }
+        }
+    }
+
     public void addExon(int start, int end, int pos) {
+        checkNotSealed();
         Exon exon = new Exon(start, end, pos, end - start + 1, this.transcriptId);
         exonList.add(exon);
         exonStarts.put(start, exon);
@@ -33,6 +74,7 @@ public class Transcript {
     }
 
     public void addCds(int start, int end, int pos) {
+        checkNotSealed();
         Region cds = new Region(start, end, pos);
         cdsList.add(cds);
         cdsStarts.put(start, cds);
@@ -43,23 +85,34 @@ public class Transcript {
         return transcriptId;
     }
 
-    public ArrayList<Exon> getExonList() {
-        return this.exonList;
+    public char getStrand() {
+        return strand;
     }
 
-    public HashMap<Integer, Exon> getExonEnds() {
-        return exonEnds;
+    public int getStart() {
+        return start;
     }
 
-    public HashMap<Integer, Exon> getExonStarts() {
-        return exonStarts;
+    public int getStop() {
+        return stop;
     }
 
-    public void reversExonList() {
-        Collections.reverse(this.exonList);
+    private void checkNotSealed() {
+        if (sealed) {
+            throw new IllegalStateException("Transcript " + transcriptId + " is already sealed");
+        }
     }
-    public void reversCdsList() {
-        Collections.reverse(this.cdsList);
+
+    public List<Exon> getExonList() {
+        return this.exonList;
+    }
+
+    public Map<Integer, Exon> getExonEnds() {
+        return exonEnds;
+    }
+
+    public Map<Integer, Exon> getExonStarts() {
+        return exonStarts;
     }
 
     public ArrayList<Region> cut(int x1, int x2) {
@@ -100,10 +153,7 @@ public class Transcript {
 
     public TreeSet<Region> cutSet(int x1, int x2) {
         // same as cut() but returns treeSet → useful for transcripotmic annotation
-        TreeSet<Region> cutRegions = new TreeSet<>(
-                Comparator.comparingInt(Region::getStart)
-                        .thenComparingInt(Region::getStop)
-        );
+        TreeSet<Region> cutRegions = new TreeSet<>(BY_START_STOP);
         for (int i = 0; i < exonList.size(); i++) {
             Exon exon;
             if (strand == '-') {
@@ -138,15 +188,111 @@ public class Transcript {
         return cutRegions;
     }
 
-    public ArrayList<Region> getCdsList() {
+    public boolean cutMatches(int x1, int x2, int[] starts, int[] stops, int count) {
+        // same as cutSet(x1, x2).equals(blocks) for sorted, disjoint blocks, without building the set
+        if (exonBoundsSorted) {
+            // exons before the first one ending at / after x1 and after the first one starting behind x2
+            // do not produce a cut → the cuts are exactly the clipped exons in between, in order
+            int exon = firstExonEndingAtOrAfter(x1);
+            int block = 0;
+            for (; exon < exonBoundStarts.length && exonBoundStarts[exon] <= x2; exon++, block++) {
+                if (block == count
+                        || starts[block] != Math.max(x1, exonBoundStarts[exon])
+                        || stops[block] != Math.min(x2, exonBoundStops[exon])) {
+                    return false;
+                }
+            }
+            return block == count && count > 0;
+        }
+
+        // unusual exon order: every cut has to be one of the blocks and every block has to be hit
+        if (count > Long.SIZE) {
+            TreeSet<Region> blocks = new TreeSet<>(BY_START_STOP);
+            for (int i = 0; i < count; i++) {
+                blocks.add(new Region(starts[i], stops[i]));
+            }
+            TreeSet<Region> cutRegions = cutSet(x1, x2);
+            return !cutRegions.isEmpty() && cutRegions.equals(blocks);
+        }
+        long hit = 0;
+        for (int i = 0; i < exonList.size(); i++) {
+            Exon exon;
+            if (strand == '-') {
+                exon = exonList.get(exonList.size() - 1 - i);
+            } else {
+                exon = exonList.get(i);
+            }
+
+            int cutStart;
+            int cutStop;
+            boolean last = false;
+            // same cases as in cutSet
+            if (x1 >= exon.getStart() && x1 <= exon.getStop() && x2 >= exon.getStart() && x2 <= exon.getStop()) {
+                cutStart = x1;
+                cutStop = x2;
+                last = true;
+            } else if (x1 >= exon.getStart() && x1 <= exon.getStop()) {
+                cutStart = x1;
+                cutStop = exon.getStop();
+            } else if (x1 <= exon.getStart() && x2 >= exon.getStop()) {
+                cutStart = exon.getStart();
+                cutStop = exon.getStop();
+            } else if (x2 >= exon.getStart() && x2 <= exon.getStop()) {
+                cutStart = exon.getStart();
+                cutStop = x2;
+                last = true;
+            } else {
+                continue;
+            }
+
+            int block = Arrays.binarySearch(starts, 0, count, cutStart);
+            if (block < 0 || stops[block] != cutStop) {
+                return false;
+            }
+            hit |= 1L << block;
+            if (last) {
+                break;
+            }
+        }
+        return hit == (count == Long.SIZE ? -1L : (1L << count) - 1);
+    }
+
+    private int firstExonEndingAtOrAfter(int x) {
+        // stops ascend as the exons are sorted and disjoint
+        int lo = 0;
+        int hi = exonBoundStops.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (exonBoundStops[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public boolean hasSortedExonBounds() {
+        return exonBoundsSorted;
+    }
+
+    public int[] getExonBoundStarts() {
+        return exonBoundStarts;
+    }
+
+    public int[] getExonBoundStops() {
+        return exonBoundStops;
+    }
+
+    public List<Region> getCdsList() {
         return cdsList;
     }
 
-    public HashMap<Integer, Region> getCdsEnds() {
+    public Map<Integer, Region> getCdsEnds() {
         return cdsEnds;
     }
 
-    public HashMap<Integer, Region> getCdsStarts() {
+    public Map<Integer, Region> getCdsStarts() {
         return cdsStarts;
     }
 }
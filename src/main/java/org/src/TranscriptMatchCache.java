@@ -0,0 +1,74 @@
+package org.src;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TranscriptMatchCache {
+    // splice graph results of one worker, least recently used entries are dropped first.
+    // a key is the gene plus the segment bins of all read blocks (see SpliceGraph.startBin / stopBin),
+    // pairs with the same block structure relative to the exon borders of a gene have the same result
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final LinkedHashMap<Key, Integer> entries;
+    // filled for every lookup, only copied when a new entry is stored
+    private final Key probe = new Key();
+
+    public TranscriptMatchCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public Key probe() {
+        probe.length = 0;
+        return probe;
+    }
+
+    public Integer get() {
+        // result for the current probe, null if unknown
+        return entries.get(probe);
+    }
+
+    public void put(int transcript) {
+        entries.put(probe.copy(), transcript);
+    }
+
+    public static class Key {
+        private int[] ints = new int[16];
+        private int length;
+
+        public void add(int value) {
+            if (length == ints.length) {
+                ints = Arrays.copyOf(ints, length * 2);
+            }
+            ints[length++] = value;
+        }
+
+        private Key copy() {
+            Key key = new Key();
+            key.ints = Arrays.copyOf(ints, length);
+            key.length = length;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + ints[i];
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key other)) return false;
+            return Arrays.equals(ints, 0, length, other.ints, 0, other.length);
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package org.src.utils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32C;
 
 public class FileUtils {
     public static String parseGTFAttributes(String[] attributeEntries, String attributeName) {
@@ -49,6 +54,53 @@ public class FileUtils {
         }
         return fileLines;
     }
+
+    public static long checksum(File file) throws IOException {
+        // CRC32C over the memory mapped file, mapped in windows so that files > 2GB work as well
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += Integer.MAX_VALUE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    public static LinkedHashMap<String, String> readSampleSheet(File sheet) throws IOException {
+        // <sample-name>\t<path-to-bam> per line, a single column falls back to the bam file name
+        LinkedHashMap<String, String> samples = new LinkedHashMap<>();
+        for (String line : readLines(sheet)) {
+            if (line.isBlank() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] cols = line.split("\t");
+            String bamPath = cols.length > 1 ? cols[1].trim() : cols[0].trim();
+            String sample = cols.length > 1 ? cols[0].trim() : sampleName(bamPath);
+            addSample(samples, sample, bamPath);
+        }
+        return samples;
+    }
+
+    public static LinkedHashMap<String, String> samplesFromBamPaths(List<String> bamPaths) {
+        LinkedHashMap<String, String> samples = new LinkedHashMap<>();
+        for (String bamPath : bamPaths) {
+            addSample(samples, sampleName(bamPath), bamPath);
+        }
+        return samples;
+    }
+
+    private static void addSample(LinkedHashMap<String, String> samples, String sample, String bamPath) {
+        if (samples.containsKey(sample)) {
+            throw new IllegalArgumentException("Duplicate sample name: " + sample);
+        }
+        samples.put(sample, bamPath);
+    }
+
+    private static String sampleName(String bamPath) {
+        String name = new File(bamPath).getName();
+        return name.endsWith(".bam") ? name.substring(0, name.length() - 4) : name;
+    }
 }
 
 
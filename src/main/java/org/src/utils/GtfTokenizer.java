@@ -0,0 +1,320 @@
+package org.src.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class GtfTokenizer {
+    // single pass gtf reader working directly on the bytes of the file:
+    // columns are located once per line, attributes are only scanned if one of them is requested
+    // and strings are only created for values that differ from the previous line
+    public static final int OTHER = 0;
+    public static final int GENE = 1;
+    public static final int TRANSCRIPT = 2;
+    public static final int EXON = 3;
+    public static final int CDS = 4;
+
+    private static final int GENE_ID = 0;
+    private static final int TRANSCRIPT_ID = 1;
+    private static final int GENE_NAME = 2;
+    private static final int GENE_BIOTYPE = 3;
+    private static final byte[][] ATTRIBUTE_KEYS = {
+            "gene_id".getBytes(StandardCharsets.US_ASCII),
+            "transcript_id".getBytes(StandardCharsets.US_ASCII),
+            "gene_name".getBytes(StandardCharsets.US_ASCII),
+            "gene_biotype".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final byte[][] FEATURES = {
+            null,
+            "gene".getBytes(StandardCharsets.US_ASCII),
+            "transcript".getBytes(StandardCharsets.US_ASCII),
+            "exon".getBytes(StandardCharsets.US_ASCII),
+            "CDS".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final FileChannel channel;
+    private final long end;
+    private long filePos;
+
+    private byte[] buf = new byte[1 << 20];
+    private int bufLen = 0;
+    private int pos = 0;
+    private boolean exhausted = false;
+
+    private int lineStart;
+    private int lineEnd;
+    private final int[] tabs = new int[8];
+
+    private boolean attributesScanned;
+    private final int[] attrStart = new int[ATTRIBUTE_KEYS.length];
+    private final int[] attrEnd = new int[ATTRIBUTE_KEYS.length];
+
+    private final CachedString seqname = new CachedString();
+    private final CachedString[] attrValues = {new CachedString(), new CachedString(), new CachedString(), new CachedString()};
+
+    public GtfTokenizer(FileChannel channel, long from, long to) {
+        // [from, to) has to start at the beginning of a line
+        this.channel = channel;
+        this.filePos = from;
+        this.end = to;
+    }
+
+    public boolean next() throws IOException {
+        while (true) {
+            int nl = indexOf((byte) '\n', pos, bufLen);
+            if (nl < 0) {
+                if (fill()) {
+                    continue;
+                }
+                if (pos >= bufLen) {
+                    return false;
+                }
+                // last line without trailing newline
+                nl = bufLen;
+            }
+            lineStart = pos;
+            lineEnd = nl;
+            pos = nl + 1;
+            if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+
+            // skip comments and empty lines
+            if (lineEnd == lineStart || buf[lineStart] == '#') {
+                continue;
+            }
+
+            int col = 0;
+            for (int i = lineStart; i < lineEnd && col < tabs.length; i++) {
+                if (buf[i] == '\t') {
+                    tabs[col++] = i;
+                }
+            }
+            if (col < tabs.length) {
+                throw new IOException("Malformed GTF line: " + new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+            }
+            attributesScanned = false;
+            return true;
+        }
+    }
+
+    public long lineOffset() {
+        // file offset of the current line, buf[0] sits at filePos - bufLen
+        return filePos - bufLen + lineStart;
+    }
+
+    public static long nextGeneLine(FileChannel channel, long from, long size) throws IOException {
+        // offset of the first "gene" line starting at or after from, size if there is none
+        long lineStart = from;
+        if (from > 0) {
+            ByteBuffer window = ByteBuffer.allocate(1 << 12);
+            lineStart = -1;
+            for (long pos = from - 1; pos < size && lineStart < 0; pos += window.limit()) {
+                window.clear();
+                if (channel.read(window, pos) <= 0) {
+                    break;
+                }
+                window.flip();
+                for (int i = 0; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        lineStart = pos + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (lineStart < 0) {
+                return size;
+            }
+        }
+        GtfTokenizer gtf = new GtfTokenizer(channel, lineStart, size);
+        while (gtf.next()) {
+            if (gtf.feature() == GENE) {
+                return gtf.lineOffset();
+            }
+        }
+        return size;
+    }
+
+    public String seqname() {
+        return seqname.get(buf, lineStart, tabs[0]);
+    }
+
+    public int feature() {
+        int from = tabs[1] + 1;
+        int to = tabs[2];
+        for (int f = 1; f < FEATURES.length; f++) {
+            if (equals(buf, from, to, FEATURES[f])) {
+                return f;
+            }
+        }
+        return OTHER;
+    }
+
+    public int start() {
+        return parseInt(tabs[2] + 1, tabs[3]);
+    }
+
+    public int end() {
+        return parseInt(tabs[3] + 1, tabs[4]);
+    }
+
+    public char strand() {
+        return (char) buf[tabs[5] + 1];
+    }
+
+    public String geneId() {
+        return attribute(GENE_ID);
+    }
+
+    public String transcriptId() {
+        return attribute(TRANSCRIPT_ID);
+    }
+
+    public String geneName() {
+        return attribute(GENE_NAME);
+    }
+
+    public String geneBiotype() {
+        return attribute(GENE_BIOTYPE);
+    }
+
+    private String attribute(int key) {
+        if (!attributesScanned) {
+            scanAttributes();
+        }
+        if (attrStart[key] < 0) {
+            return null;
+        }
+        return attrValues[key].get(buf, attrStart[key], attrEnd[key]);
+    }
+
+    private void scanAttributes() {
+        // key "value"; key "value"; ... → remember the first occurrence of every requested key
+        for (int k = 0; k < ATTRIBUTE_KEYS.length; k++) {
+            attrStart[k] = -1;
+        }
+        int i = tabs[7] + 1;
+        while (i < lineEnd) {
+            while (i < lineEnd && (buf[i] == ' ' || buf[i] == ';')) {
+                i++;
+            }
+            int keyStart = i;
+            while (i < lineEnd && buf[i] != ' ' && buf[i] != ';') {
+                i++;
+            }
+            int keyEnd = i;
+            while (i < lineEnd && buf[i] == ' ') {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            if (i < lineEnd && buf[i] == '"') {
+                valueStart = ++i;
+                while (i < lineEnd && buf[i] != '"') {
+                    i++;
+                }
+                valueEnd = i;
+                i++;
+            } else {
+                valueStart = i;
+                while (i < lineEnd && buf[i] != ';') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            for (int k = 0; k < ATTRIBUTE_KEYS.length; k++) {
+                if (attrStart[k] < 0 && equals(buf, keyStart, keyEnd, ATTRIBUTE_KEYS[k])) {
+                    attrStart[k] = valueStart;
+                    attrEnd[k] = valueEnd;
+                    break;
+                }
+            }
+        }
+        attributesScanned = true;
+    }
+
+    private boolean fill() throws IOException {
+        if (exhausted || filePos >= end) {
+            exhausted = true;
+            return false;
+        }
+        // keep the unfinished line, grow only if a single line does not fit
+        int remaining = bufLen - pos;
+        if (pos == 0 && bufLen == buf.length) {
+            byte[] grown = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, bufLen);
+            buf = grown;
+        } else {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        }
+        pos = 0;
+        bufLen = remaining;
+
+        int toRead = (int) Math.min(buf.length - bufLen, end - filePos);
+        // positional reads → several tokenizers can share one channel
+        int read = channel.read(ByteBuffer.wrap(buf, bufLen, toRead), filePos);
+        if (read <= 0) {
+            exhausted = true;
+            return false;
+        }
+        filePos += read;
+        bufLen += read;
+        return true;
+    }
+
+    private int parseInt(int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(buf, from, to - from, StandardCharsets.UTF_8) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] buf, int from, int to, byte[] other) {
+        return to - from == other.length && equals(buf, from, other, other.length);
+    }
+
+    private static class CachedString {
+        // last value of a column: consecutive lines mostly repeat it, so the String is created once
+        private byte[] bytes = new byte[64];
+        private int length = -1;
+        private String value;
+
+        String get(byte[] buf, int from, int to) {
+            int len = to - from;
+            if (len == length && GtfTokenizer.equals(buf, from, bytes, len)) {
+                return value;
+            }
+            if (bytes.length < len) {
+                bytes = new byte[Math.max(len, bytes.length * 2)];
+            }
+            System.arraycopy(buf, from, bytes, 0, len);
+            length = len;
+            value = new String(buf, from, len, StandardCharsets.UTF_8);
+            return value;
+        }
+    }
+
+    private static boolean equals(byte[] buf, int from, byte[] other, int otherLength) {
+        for (int i = 0; i < otherLength; i++) {
+            if (buf[from + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}